@@ -0,0 +1,373 @@
+package utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Binary columnar history backend (-Dflaky.history.backend=columnar), one row per scenario per run.
+ *
+ * Files in test-history/history-columnar/:
+ * - test.col      int   test key dictionary id
+ * - timestamp.col long  epoch millis (LocalDateTime stored as UTC)
+ * - status.col    byte  HistoryStore.STATUS_*
+ * - duration-ms.col long durationMs (older stores have duration.col with the raw nanosecond sums instead; it is
+ *                       converted into duration-ms.col once, when the store is opened)
+ * - reason.col    int   reason dictionary id, -1 for none
+ * - setup.col     int   setupMs (before hooks), -1 when not recorded
+ * - teardown.col  int   teardownMs (after hooks), -1 when not recorded; both columns came later, so in older
+ *                       stores they are shorter than rows and the missing head reads as -1
+ * - tags.col      int   featureTags dictionary id, -1 for none; added after the hook columns, read the same way
+ * - tests.dict / reasons.dict / tags.dict   one JSON string per line, line number = id
+ * - rows          committed row count; rows past it (torn append) are ignored and overwritten
+ * - aggregates/   HistoryRetention aggregates carried over from the JSON log, kept as a small HistoryLog
+ *
+ * Scans read the columns through read-only memory mappings, so a full pass touches no JSON and allocates nothing per row.
+ */
+final class ColumnarHistoryStore implements HistoryStore {
+
+    private static final String DURATION_COLUMN = "duration-ms.col";
+    // mapping chunk, a multiple of every column width
+    private static final long CHUNK_BYTES = 1L << 30;
+
+    private final File dir;
+    private final Dictionary tests;
+    private final Dictionary reasons;
+    private final Dictionary tags;
+    private final HistoryLog aggregates;
+    private long rows;
+
+    private ColumnarHistoryStore(File dir, ObjectMapper mapper) throws IOException {
+        this.dir = dir;
+        if (!dir.exists()) dir.mkdirs();
+        this.tests = new Dictionary(new File(dir, "tests.dict"), mapper);
+        this.reasons = new Dictionary(new File(dir, "reasons.dict"), mapper);
+        this.tags = new Dictionary(new File(dir, "tags.dict"), mapper);
+        this.aggregates = new HistoryLog(new File(dir, "aggregates"), HistoryLog.DEFAULT_SEGMENT_BYTES);
+        this.rows = readRowCount(dir);
+        migrateDurations();
+    }
+
+    // duration.col -> duration-ms.col (nanoseconds / 1e6) via temp file + rename; the new file's existence is the
+    // migration's commit point, so an interrupted run just converts again from the untouched duration.col
+    private void migrateDurations() throws IOException {
+        File legacy = new File(dir, "duration.col");
+        if (!legacy.exists()) return;
+        File converted = new File(dir, DURATION_COLUMN);
+        if (!converted.exists()) {
+            File tmp = new File(dir, DURATION_COLUMN + ".tmp");
+            try (FileChannel in = FileChannel.open(legacy.toPath(), StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                         StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+                for (long pos = 0, size = in.size(); pos < size; ) {
+                    buf.clear();
+                    while (buf.hasRemaining() && pos < size) {
+                        int n = in.read(buf, pos);
+                        if (n < 0) size = pos;
+                        else pos += n;
+                    }
+                    buf.flip();
+                    for (int i = 0; i + 8 <= buf.limit(); i += 8) buf.putLong(i, Math.round(buf.getLong(i) / 1e6));
+                    while (buf.hasRemaining()) out.write(buf);
+                }
+                out.force(false);
+            }
+            Files.move(tmp.toPath(), converted.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.delete(legacy.toPath());
+    }
+
+    static ColumnarHistoryStore open(File dir, ObjectMapper mapper) throws IOException {
+        return new ColumnarHistoryStore(dir, mapper);
+    }
+
+    @Override
+    public String name() {
+        return "columnar";
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return rows == 0 && aggregates.isEmpty();
+    }
+
+    long rowCount() {
+        return rows;
+    }
+
+    @Override
+    public void appendRecords(ObjectMapper mapper, List<String> keys, List<ObjectNode> entries) throws IOException {
+        int n = entries.size();
+        if (n == 0) return;
+        List<String> aggKeys = new ArrayList<>();
+        List<ObjectNode> aggEntries = new ArrayList<>();
+        ByteBuffer test = ByteBuffer.allocate(n * 4);
+        ByteBuffer timestamp = ByteBuffer.allocate(n * 8);
+        ByteBuffer status = ByteBuffer.allocate(n);
+        ByteBuffer duration = ByteBuffer.allocate(n * 8);
+        ByteBuffer reason = ByteBuffer.allocate(n * 4);
+        ByteBuffer setup = ByteBuffer.allocate(n * 4);
+        ByteBuffer teardown = ByteBuffer.allocate(n * 4);
+        ByteBuffer tag = ByteBuffer.allocate(n * 4);
+        for (int i = 0; i < n; i++) {
+            ObjectNode e = entries.get(i);
+            if (HistoryRetention.isAggregate(e)) {
+                aggKeys.add(keys.get(i));
+                aggEntries.add(e);
+                continue;
+            }
+            test.putInt(tests.idFor(keys.get(i)));
+            timestamp.putLong(HistoryStore.toEpochMillis(e.path("timestamp").asText(null)));
+            status.put(HistoryStore.statusCode(e.path("status").asText("")));
+            duration.putLong(HistoryStore.durationMs(e));
+            String r = e.path("reason").asText(null);
+            reason.putInt(r == null ? -1 : reasons.idFor(r));
+            setup.putInt(e.has("setupMs") ? (int) Math.min(Integer.MAX_VALUE, e.path("setupMs").asLong(0)) : -1);
+            teardown.putInt(e.has("teardownMs") ? (int) Math.min(Integer.MAX_VALUE, e.path("teardownMs").asLong(0)) : -1);
+            String t = e.path("featureTags").asText(null);
+            tag.putInt(t == null ? -1 : tags.idFor(t));
+        }
+        aggregates.appendRecords(mapper, aggKeys, aggEntries);
+        int written = status.position();
+        if (written == 0) return;
+        // dictionaries first: every id a committed row points at must already be on disk
+        tests.flush();
+        reasons.flush();
+        tags.flush();
+        writeColumn("test.col", test, 4);
+        writeColumn("timestamp.col", timestamp, 8);
+        writeColumn("status.col", status, 1);
+        writeColumn(DURATION_COLUMN, duration, 8);
+        writeColumn("reason.col", reason, 4);
+        writeColumn("setup.col", setup, 4);
+        writeColumn("teardown.col", teardown, 4);
+        writeColumn("tags.col", tag, 4);
+        writeRowCount(rows + written);
+        rows += written;
+    }
+
+    @Override
+    public void replay(ObjectMapper mapper, Position from, RecordHandler handler) throws IOException {
+        long start = from == null ? 0 : from.offset;
+        // aggregates are older than every row, so they replay first on a full replay
+        if (start == 0) aggregates.replay(mapper, null, handler);
+        scanRows(start, (test, epochMillis, status, durationMs, reason, setupMs, teardownMs, featureTags) -> {
+            ObjectNode entry = mapper.createObjectNode();
+            entry.put("timestamp", HistoryStore.fromEpochMillis(epochMillis));
+            entry.put("status", HistoryStore.statusName(status));
+            entry.put("reason", reason);
+            entry.put("durationMs", durationMs);
+            entry.put(DURATION_UNIT, DURATION_UNIT_MS);
+            if (setupMs >= 0) entry.put("setupMs", setupMs);
+            if (teardownMs >= 0) entry.put("teardownMs", teardownMs);
+            if (featureTags != null) entry.put("featureTags", featureTags);
+            entry.put("flakyPattern", status == STATUS_FLAKY);
+            handler.accept(test, entry);
+        });
+    }
+
+    @Override
+    public void scan(ObjectMapper mapper, RowVisitor visitor) throws IOException {
+        scanRows(0, (test, epochMillis, status, durationMs, reason, setupMs, teardownMs, featureTags) ->
+                visitor.visit(test, epochMillis, status, durationMs, reason));
+    }
+
+    @Override
+    public Position end() {
+        return new Position(1, rows);
+    }
+
+    @Override
+    public boolean contains(Position position) {
+        return (position.segment == 1 || position.segment == 0) && position.offset <= rows;
+    }
+
+    // Walks rows [start, rows) chunk by chunk over read-only mappings of every column
+    private void scanRows(long start, ColumnVisitor visitor) throws IOException {
+        if (start >= rows) return;
+        try (FileChannel test = channel("test.col");
+             FileChannel timestamp = channel("timestamp.col");
+             FileChannel status = channel("status.col");
+             FileChannel duration = channel(DURATION_COLUMN);
+             FileChannel reason = channel("reason.col");
+             FileChannel setup = optionalChannel("setup.col");
+             FileChannel teardown = optionalChannel("teardown.col");
+             FileChannel tag = optionalChannel("tags.col")) {
+            long rowsPerChunk = CHUNK_BYTES / 8;
+            for (long chunkStart = start; chunkStart < rows; chunkStart += rowsPerChunk) {
+                int count = (int) Math.min(rowsPerChunk, rows - chunkStart);
+                MappedByteBuffer t = map(test, chunkStart, count, 4);
+                MappedByteBuffer ts = map(timestamp, chunkStart, count, 8);
+                MappedByteBuffer st = map(status, chunkStart, count, 1);
+                MappedByteBuffer d = map(duration, chunkStart, count, 8);
+                MappedByteBuffer r = map(reason, chunkStart, count, 4);
+                MappedByteBuffer su = mapOptional(setup, chunkStart, count);
+                MappedByteBuffer td = mapOptional(teardown, chunkStart, count);
+                MappedByteBuffer tg = mapOptional(tag, chunkStart, count);
+                for (int i = 0; i < count; i++) {
+                    int reasonId = r.getInt(i * 4);
+                    int tagsId = tg == null ? -1 : tg.getInt(i * 4);
+                    visitor.visit(tests.get(t.getInt(i * 4)), ts.getLong(i * 8), st.get(i),
+                            d.getLong(i * 8), reasonId < 0 ? null : reasons.get(reasonId),
+                            su == null ? -1 : su.getInt(i * 4), td == null ? -1 : td.getInt(i * 4),
+                            tagsId < 0 ? null : tags.get(tagsId));
+                }
+            }
+        }
+    }
+
+    // columns added after the first release: absent or short in older stores
+    private FileChannel optionalChannel(String column) throws IOException {
+        File f = new File(dir, column);
+        return f.exists() ? FileChannel.open(f.toPath(), StandardOpenOption.READ) : null;
+    }
+
+    // null when the column does not cover the chunk; appendRecords pads it first, so only in a store older than it
+    private static MappedByteBuffer mapOptional(FileChannel ch, long firstRow, int count) throws IOException {
+        if (ch == null || ch.size() < (firstRow + count) * 4) return null;
+        return map(ch, firstRow, count, 4);
+    }
+
+    private static MappedByteBuffer map(FileChannel ch, long firstRow, int count, int width) throws IOException {
+        return ch.map(FileChannel.MapMode.READ_ONLY, firstRow * width, (long) count * width);
+    }
+
+    private FileChannel channel(String column) throws IOException {
+        return FileChannel.open(new File(dir, column).toPath(), StandardOpenOption.READ);
+    }
+
+    // Writes at the committed end, overwriting any bytes a torn append left behind; a column that is shorter than
+    // the committed rows (added in a later version) is first padded with 0xFF bytes, i.e. -1 per int
+    private void writeColumn(String column, ByteBuffer data, int width) throws IOException {
+        data.flip();
+        try (FileChannel ch = FileChannel.open(new File(dir, column).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long pos = rows * width;
+            if (ch.size() < pos) {
+                byte[] fill = new byte[64 * 1024];
+                Arrays.fill(fill, (byte) -1);
+                for (long at = ch.size(); at < pos; ) {
+                    at += ch.write(ByteBuffer.wrap(fill, 0, (int) Math.min(fill.length, pos - at)), at);
+                }
+            }
+            while (data.hasRemaining()) pos += ch.write(data, pos);
+            ch.truncate(pos);
+            ch.force(false);
+        }
+    }
+
+    /** Committed row count of the store in dir, without opening it (0 if there is none). */
+    static long readRowCount(File dir) throws IOException {
+        File f = new File(dir, "rows");
+        if (!f.exists()) return 0;
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(f.toPath()), StandardCharsets.US_ASCII).trim());
+        } catch (NumberFormatException ex) {
+            throw new IOException("Corrupt row count in " + f.getAbsolutePath(), ex);
+        }
+    }
+
+    // the row count file is the commit point of an append
+    private void writeRowCount(long count) throws IOException {
+        Path tmp = new File(dir, "rows.tmp").toPath();
+        Files.write(tmp, Long.toString(count).getBytes(StandardCharsets.US_ASCII));
+        Files.move(tmp, new File(dir, "rows").toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // ---------------- helper classes ----------------
+    /** RowVisitor plus the hook columns (-1 = not recorded) and the feature tags (null = none). */
+    private interface ColumnVisitor {
+        void visit(String test, long epochMillis, byte status, long durationMs, String reason, int setupMs, int teardownMs,
+                   String featureTags) throws IOException;
+    }
+
+    /** Append-only string dictionary: ids are line numbers, strings are interned once in memory. */
+    private static class Dictionary {
+        private final File file;
+        private final ObjectMapper mapper;
+        private final List<String> values = new ArrayList<>();
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> pending = new ArrayList<>();
+
+        Dictionary(File file, ObjectMapper mapper) throws IOException {
+            this.file = file;
+            this.mapper = mapper;
+            load();
+        }
+
+        String get(int id) {
+            return values.get(id);
+        }
+
+        int idFor(String value) {
+            Integer id = ids.get(value);
+            if (id != null) return id;
+            int next = values.size();
+            values.add(value);
+            ids.put(value, next);
+            pending.add(value);
+            return next;
+        }
+
+        void flush() throws IOException {
+            if (pending.isEmpty()) return;
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            for (String v : pending) {
+                buf.write(mapper.writeValueAsBytes(v));
+                buf.write('\n');
+            }
+            try (FileChannel ch = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ByteBuffer out = ByteBuffer.wrap(buf.toByteArray());
+                while (out.hasRemaining()) ch.write(out);
+                ch.force(false);
+            }
+            pending.clear();
+        }
+
+        // a torn last line would shift every later id, so it is cut off before anything is appended
+        private void load() throws IOException {
+            if (!file.exists()) return;
+            long valid = 0;
+            try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                ByteArrayOutputStream line = new ByteArrayOutputStream();
+                long pos = 0;
+                int b;
+                while ((b = in.read()) != -1) {
+                    pos++;
+                    if (b != '\n') {
+                        line.write(b);
+                        continue;
+                    }
+                    String value;
+                    try {
+                        value = mapper.readValue(line.toByteArray(), String.class);
+                    } catch (IOException ex) {
+                        break;
+                    }
+                    ids.put(value, values.size());
+                    values.add(value);
+                    valid = pos;
+                    line.reset();
+                }
+            }
+            if (valid < file.length()) {
+                try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                    ch.truncate(valid);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Streaming reader for the Cucumber JSON report.
+ * - Walks features -> elements -> steps token by token with a Jackson JsonParser
+ * - Skips embeddings, output etc. without materializing them (base64 screenshots never become Strings);
+ *   of match only the glue location is read
+ * - Produces the same key -> ScenarioResult map the old readTree() version did
+ *
+ * Memory use is bounded by one feature's scenario list, not by the size of the file.
+ */
+final class CucumberJsonParser {
+
+    private final JsonFactory factory;
+
+    CucumberJsonParser(JsonFactory factory) {
+        this.factory = factory;
+    }
+
+    // Parses Cucumber JSON and builds map key -> ScenarioResult
+    Map<String, FlakyTestAnalyzer.ScenarioResult> parse(File jsonFile) throws IOException {
+        Map<String, FlakyTestAnalyzer.ScenarioResult> map = new LinkedHashMap<>();
+        try (JsonParser p = factory.createParser(jsonFile)) {
+            if (p.nextToken() != JsonToken.START_ARRAY) return map;
+
+            for (JsonToken t = p.nextToken(); t != null && t != JsonToken.END_ARRAY; t = p.nextToken()) {
+                if (t == JsonToken.START_OBJECT) {
+                    readFeature(p, map);
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+        return map;
+    }
+
+    // Parser is positioned on the feature's START_OBJECT; leaves it on the matching END_OBJECT.
+    private void readFeature(JsonParser p, Map<String, FlakyTestAnalyzer.ScenarioResult> map) throws IOException {
+        String uri = null;
+        String path = null;
+        List<String> tags = Collections.emptyList();
+        // 'uri' may come after 'elements' (cucumber-jvm writes it late), so keys are built when the feature closes
+        List<PendingScenario> pending = null;
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            JsonToken value = p.nextToken();
+            switch (field) {
+                case "uri":
+                    uri = value.isScalarValue() ? p.getValueAsString(null) : skip(p);
+                    break;
+                case "path":
+                    path = value.isScalarValue() ? p.getValueAsString(null) : skip(p);
+                    break;
+                case "elements":
+                    if (value == JsonToken.START_ARRAY) {
+                        pending = readElements(p);
+                    } else {
+                        p.skipChildren();
+                    }
+                    break;
+                case "tags":
+                    if (value == JsonToken.START_ARRAY) {
+                        tags = readTags(p);
+                    } else {
+                        p.skipChildren();
+                    }
+                    break;
+                default:
+                    p.skipChildren();
+            }
+        }
+
+        if (pending == null) return;
+        if (uri == null || uri.isEmpty()) {
+            // older cucumber JSON may use 'path' or 'name' - try 'uri' first, else 'path'
+            uri = path;
+        }
+
+        for (PendingScenario s : pending) {
+            // Build key similar to rerun.txt: classpath:path/to.feature:line
+            String key;
+            if (uri != null && !uri.isEmpty() && s.line > 0) {
+                key = uri + ":" + s.line;
+            } else if (uri != null && !uri.isEmpty()) {
+                key = uri;
+            } else {
+                // fallback: name + hash
+                key = s.name + "@" + UUID.randomUUID().toString();
+            }
+            s.result.featureTags = tags;
+            map.put(key, s.result);
+        }
+    }
+
+    // [{"name": "@tag", "line": 1}, ...] -> tag names; one list shared by the feature's scenarios
+    private static List<String> readTags(JsonParser p) throws IOException {
+        List<String> tags = new ArrayList<>(2);
+        for (JsonToken t = p.nextToken(); t != null && t != JsonToken.END_ARRAY; t = p.nextToken()) {
+            if (t != JsonToken.START_OBJECT) {
+                p.skipChildren();
+                continue;
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                JsonToken value = p.nextToken();
+                if ("name".equals(p.getCurrentName()) && value.isScalarValue()) {
+                    tags.add(p.getValueAsString(""));
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+        return tags;
+    }
+
+    private List<PendingScenario> readElements(JsonParser p) throws IOException {
+        List<PendingScenario> list = new ArrayList<>();
+        for (JsonToken t = p.nextToken(); t != null && t != JsonToken.END_ARRAY; t = p.nextToken()) {
+            if (t == JsonToken.START_OBJECT) {
+                list.add(readElement(p));
+            } else {
+                // non-object element: no line/name/steps, counts as a passed scenario like the tree version did
+                p.skipChildren();
+                list.add(new PendingScenario(-1, "", new FlakyTestAnalyzer.ScenarioResult(FlakyTestAnalyzer.Status.PASSED, null, 0, Collections.emptyList())));
+            }
+        }
+        return list;
+    }
+
+    // element is a scenario/outline example; steps decide status and error message
+    private PendingScenario readElement(JsonParser p) throws IOException {
+        int line = -1;
+        String name = "";
+        StepAccumulator acc = new StepAccumulator();
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            JsonToken value = p.nextToken();
+            switch (field) {
+                case "line":
+                    line = value.isScalarValue() ? p.getValueAsInt(-1) : skipInt(p);
+                    break;
+                case "name":
+                    name = value.isScalarValue() ? p.getValueAsString("") : skipString(p);
+                    break;
+                case "steps":
+                    if (value == JsonToken.START_ARRAY) {
+                        readSteps(p, acc);
+                    } else {
+                        p.skipChildren();
+                    }
+                    break;
+                case "before":
+                case "after":
+                    if (value == JsonToken.START_ARRAY) {
+                        readHooks(p, acc, "before".equals(field));
+                    } else {
+                        p.skipChildren();
+                    }
+                    break;
+                default:
+                    // tags, embeddings ... never materialized
+                    p.skipChildren();
+            }
+        }
+        return new PendingScenario(line, name, new FlakyTestAnalyzer.ScenarioResult(acc.finalStatus, acc.errorMsg, acc.errorDetail,
+                acc.durationNanos, acc.steps, acc.setupNanos, acc.teardownNanos, acc.hooks));
+    }
+
+    private void readSteps(JsonParser p, StepAccumulator acc) throws IOException {
+        for (JsonToken t = p.nextToken(); t != null && t != JsonToken.END_ARRAY; t = p.nextToken()) {
+            if (t != JsonToken.START_OBJECT || acc.done) {
+                // first failure already found: skip the rest of the steps wholesale
+                p.skipChildren();
+                continue;
+            }
+            String name = "";
+            String status = "";
+            Long duration = null;
+            String errorMessage = null;
+            String location = null;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                JsonToken value = p.nextToken();
+                if ("name".equals(field)) {
+                    name = value.isScalarValue() ? p.getValueAsString("") : skipString(p);
+                } else if ("result".equals(field) && value == JsonToken.START_OBJECT) {
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        String rf = p.getCurrentName();
+                        JsonToken rv = p.nextToken();
+                        if ("status".equals(rf) && rv.isScalarValue()) {
+                            status = p.getValueAsString("");
+                        } else if ("duration".equals(rf)) {
+                            duration = rv.isScalarValue() ? p.getValueAsLong(0) : skipLong(p);
+                        } else if ("error_message".equals(rf) && rv.isScalarValue()) {
+                            errorMessage = p.getValueAsString(null);
+                        } else {
+                            p.skipChildren();
+                        }
+                    }
+                } else if ("match".equals(field) && value == JsonToken.START_OBJECT) {
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        JsonToken mv = p.nextToken();
+                        if ("location".equals(p.getCurrentName()) && mv.isScalarValue()) {
+                            location = p.getValueAsString(null);
+                        } else {
+                            p.skipChildren();
+                        }
+                    }
+                } else {
+                    // embeddings, output, rows, doc_string
+                    p.skipChildren();
+                }
+            }
+            acc.accept(name, status, duration, errorMessage, location);
+        }
+    }
+
+    // before / after hooks: only duration and match.location; their time is kept apart from the step time
+    private void readHooks(JsonParser p, StepAccumulator acc, boolean before) throws IOException {
+        for (JsonToken t = p.nextToken(); t != null && t != JsonToken.END_ARRAY; t = p.nextToken()) {
+            if (t != JsonToken.START_OBJECT) {
+                p.skipChildren();
+                continue;
+            }
+            Long duration = null;
+            String location = null;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                JsonToken value = p.nextToken();
+                if (("result".equals(field) || "match".equals(field)) && value == JsonToken.START_OBJECT) {
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        String rf = p.getCurrentName();
+                        JsonToken rv = p.nextToken();
+                        if ("duration".equals(rf) && "result".equals(field)) {
+                            duration = rv.isScalarValue() ? p.getValueAsLong(0) : skipLong(p);
+                        } else if ("location".equals(rf) && "match".equals(field) && rv.isScalarValue()) {
+                            location = p.getValueAsString(null);
+                        } else {
+                            p.skipChildren();
+                        }
+                    }
+                } else {
+                    // embeddings, output
+                    p.skipChildren();
+                }
+            }
+            if (duration != null) acc.acceptHook(before, duration, location);
+        }
+    }
+
+    private static String skip(JsonParser p) throws IOException {
+        p.skipChildren();
+        return null;
+    }
+
+    private static String skipString(JsonParser p) throws IOException {
+        p.skipChildren();
+        return "";
+    }
+
+    private static int skipInt(JsonParser p) throws IOException {
+        p.skipChildren();
+        return -1;
+    }
+
+    private static long skipLong(JsonParser p) throws IOException {
+        p.skipChildren();
+        return 0;
+    }
+
+    static String extractConciseError(String full) {
+        if (full == null) return null;
+        // pick first non-empty line and truncate to 200 chars
+        String[] lines = full.split("\\r?\\n");
+        for (String l : lines) {
+            l = l.trim();
+            if (!l.isEmpty()) {
+                return l.length() > 200 ? l.substring(0, 200) + "..." : l;
+            }
+        }
+        return full.length() > 200 ? full.substring(0, 200) + "..." : full;
+    }
+
+    // ---------------- helper classes ----------------
+    private static class StepAccumulator {
+        FlakyTestAnalyzer.Status finalStatus = FlakyTestAnalyzer.Status.PASSED;
+        String errorMsg = null;
+        String errorDetail = null;
+        long durationNanos = 0;
+        final List<FlakyTestAnalyzer.StepTiming> steps = new ArrayList<>();
+        long setupNanos = 0;
+        long teardownNanos = 0;
+        final List<FlakyTestAnalyzer.StepTiming> hooks = new ArrayList<>(2);
+        boolean done = false;
+
+        void acceptHook(boolean before, long duration, String location) {
+            if (before) setupNanos += duration;
+            else teardownNanos += duration;
+            hooks.add(new FlakyTestAnalyzer.StepTiming(before ? "before" : "after", duration, location));
+        }
+
+        void accept(String name, String statusS, Long duration, String em, String location) {
+            if (duration != null) {
+                // cucumber-jvm writes step durations in nanoseconds; absent for skipped steps
+                durationNanos += duration;
+                steps.add(new FlakyTestAnalyzer.StepTiming(name, duration, location));
+            }
+            if ("failed".equalsIgnoreCase(statusS)) {
+                finalStatus = FlakyTestAnalyzer.Status.FAILED;
+                // pick first non-empty error_message
+                if (em != null && !em.isEmpty()) {
+                    errorMsg = extractConciseError(em);
+                    errorDetail = em.length() > FailureClusters.MAX_DETAIL_CHARS
+                            ? em.substring(0, FailureClusters.MAX_DETAIL_CHARS) : em;
+                    done = true; // first failure sufficient
+                }
+            } else if (!"passed".equalsIgnoreCase(statusS) && finalStatus != FlakyTestAnalyzer.Status.FAILED) {
+                // treat anything else as non-passed (pending/skipped)
+                finalStatus = FlakyTestAnalyzer.Status.FAILED;
+            }
+        }
+    }
+
+    private static class PendingScenario {
+        final int line;
+        final String name;
+        final FlakyTestAnalyzer.ScenarioResult result;
+        PendingScenario(int line, String name, FlakyTestAnalyzer.ScenarioResult result) {
+            this.line = line; this.name = name; this.result = result;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Sharded Cucumber JSON reports (one per surefire fork / CI agent).
+ * - cucumber.json.path may be a single file, a directory (every *.json in it) or a glob such as target/shards/**.json;
+ *   / and \ both separate directories (so a glob cannot escape with \), and the glob is never turned into a Path,
+ *   which Windows rejects for * and ?
+ * - Shards are parsed in parallel on a fork-join pool (-Dflaky.parse.parallelism, default: available processors)
+ * - Results merge in sorted file order, so the merged map is the same no matter which shard finishes first
+ *
+ * A scenario reported by several shards (e.g. a rerun) keeps the worse result: FAILED beats PASSED,
+ * ties go to the first shard in file order.
+ */
+final class CucumberReportSet {
+
+    private final List<File> files;
+
+    private CucumberReportSet(List<File> files) {
+        this.files = files;
+    }
+
+    /** Resolves a file, directory or glob to the sorted list of report files. */
+    static CucumberReportSet resolve(String spec) throws IOException {
+        File single = new File(spec);
+        if (single.isFile()) return new CucumberReportSet(Collections.singletonList(single));
+        if (single.isDirectory()) {
+            return new CucumberReportSet(walk(single.toPath(), "*.json", 1));
+        }
+        int globAt = indexOfGlob(spec);
+        if (globAt < 0) return new CucumberReportSet(Collections.emptyList());
+
+        // split into the literal base directory (up to the separator before the first glob character) and the glob
+        String normalized = spec.replace('\\', '/');
+        int slash = normalized.lastIndexOf('/', globAt);
+        Path base = slash < 0 ? Paths.get("") : Paths.get(normalized.substring(0, slash + 1));
+        String rest = normalized.substring(slash + 1);
+        int depth = rest.contains("**") ? Integer.MAX_VALUE : rest.split("/").length;
+        return new CucumberReportSet(walk(base, rest, depth));
+    }
+
+    List<File> files() {
+        return files;
+    }
+
+    boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    /** Parses every shard in parallel and merges the results deterministically. */
+    Map<String, FlakyTestAnalyzer.ScenarioResult> parse(JsonFactory factory) throws IOException {
+        if (files.size() == 1) return new CucumberJsonParser(factory).parse(files.get(0));
+
+        int parallelism = Math.max(1, Math.min(files.size(),
+                Integer.getInteger("flaky.parse.parallelism", Runtime.getRuntime().availableProcessors())));
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<Map<String, FlakyTestAnalyzer.ScenarioResult>>> tasks = new ArrayList<>();
+            for (File f : files) {
+                tasks.add(pool.submit(() -> parseShard(factory, f)));
+            }
+            Map<String, FlakyTestAnalyzer.ScenarioResult> merged = new LinkedHashMap<>();
+            for (ForkJoinTask<Map<String, FlakyTestAnalyzer.ScenarioResult>> task : tasks) {
+                for (Map.Entry<String, FlakyTestAnalyzer.ScenarioResult> e : task.get().entrySet()) {
+                    merged.merge(e.getKey(), e.getValue(), CucumberReportSet::worse);
+                }
+            }
+            return merged;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing Cucumber shards", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("Failed to parse Cucumber shards", ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // a truncated shard (fork killed mid-write) is reported and skipped rather than failing the whole run
+    private static Map<String, FlakyTestAnalyzer.ScenarioResult> parseShard(JsonFactory factory, File f) {
+        try {
+            return new CucumberJsonParser(factory).parse(f);
+        } catch (IOException ex) {
+            System.out.println("⚠️ Skipping unreadable Cucumber JSON " + f.getAbsolutePath() + ": " + ex.getMessage());
+            return Collections.emptyMap();
+        }
+    }
+
+    private static FlakyTestAnalyzer.ScenarioResult worse(FlakyTestAnalyzer.ScenarioResult first,
+                                                          FlakyTestAnalyzer.ScenarioResult second) {
+        if (first.status == FlakyTestAnalyzer.Status.PASSED && second.status != FlakyTestAnalyzer.Status.PASSED) {
+            return second;
+        }
+        return first;
+    }
+
+    private static int indexOfGlob(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if ("*?[{".indexOf(s.charAt(i)) >= 0) return i;
+        }
+        return -1;
+    }
+
+    private static List<File> walk(Path base, String glob, int depth) throws IOException {
+        if (!Files.isDirectory(base)) return Collections.emptyList();
+        PathMatcher matcher = base.getFileSystem().getPathMatcher("glob:" + glob);
+        try (Stream<Path> paths = Files.walk(base, depth)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(p -> matcher.matches(base.relativize(p)))
+                    .sorted()
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        }
+    }
+}
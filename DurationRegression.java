@@ -0,0 +1,44 @@
+package utils;
+
+/**
+ * Flags passed scenarios that ran much slower than their rolling baseline (HistoryIndex.Entry.baseline*).
+ * A run is SLOW when all of these hold:
+ * - the baseline has at least flaky.slow.minRuns passed runs (default 5)
+ * - duration >= baseline mean * flaky.slow.ratio (default 1.5)
+ * - duration - baseline mean >= flaky.slow.minDeltaMs (default 200), so millisecond jitter never counts
+ * - duration is at least flaky.slow.sigma (default 3) EWMA standard deviations above the mean
+ *   (skipped when the baseline has no variance yet)
+ *
+ * Set flaky.slow.ratio=0 to turn detection off.
+ */
+final class DurationRegression {
+
+    final int minRuns;
+    final double ratio;
+    final long minDeltaMs;
+    final double sigma;
+
+    DurationRegression(int minRuns, double ratio, long minDeltaMs, double sigma) {
+        this.minRuns = minRuns;
+        this.ratio = ratio;
+        this.minDeltaMs = minDeltaMs;
+        this.sigma = sigma;
+    }
+
+    static DurationRegression fromSystemProperties() {
+        return new DurationRegression(
+                Math.max(1, Integer.getInteger("flaky.slow.minRuns", 5)),
+                Double.parseDouble(System.getProperty("flaky.slow.ratio", "1.5")),
+                Long.getLong("flaky.slow.minDeltaMs", 200),
+                Double.parseDouble(System.getProperty("flaky.slow.sigma", "3")));
+    }
+
+    /** Compares this run against the baseline as it stood before the run was added. */
+    boolean isSlow(HistoryIndex.Entry history, long durationMs) {
+        if (ratio <= 0 || history == null || history.baselineRuns < minRuns) return false;
+        double mean = history.baselineMean;
+        if (durationMs < mean * ratio || durationMs - mean < minDeltaMs) return false;
+        double sd = Math.sqrt(history.baselineVar);
+        return sd == 0 || (durationMs - mean) / sd >= sigma;
+    }
+}
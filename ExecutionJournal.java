@@ -0,0 +1,204 @@
+package com.example.reporting;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Append-only journal of one run's scenario results (target/execution-journal-<pid>.tsv by default).
+ * - Test threads only format a line and offer it to a lock-free queue; they never block on I/O
+ * - A single daemon writer drains the queue, appends and flushes every flushMillis, so a killed JVM loses
+ *   at most the last interval
+ * - One file per JVM (see forProcess): forked surefire JVMs share target/ and must not truncate each other's journal
+ * - A run that finished cleanly ends with an E record; a journal without one whose writer pid is gone is a
+ *   crashed run and can still be read back (see read); one whose writer is alive belongs to a sibling fork
+ *
+ * One record per line, tab separated, names escaped (\\ \t \n \r):
+ *   S  startEpochMillis  pid          (pid missing in older journals)
+ *   R  durationNanos  status  name
+ *   E  endEpochMillis  totalNanos
+ * A torn last line (crash mid-write) has the wrong field count and is ignored by read.
+ */
+final class ExecutionJournal {
+
+    private final File file;
+    private final long flushNanos;
+    private final ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<>();
+    private final Thread writer;
+    private volatile boolean closing;
+    private volatile boolean failed;
+    private volatile Runnable afterClose;
+
+    private ExecutionJournal(File file, long flushMillis) {
+        this.file = file;
+        this.flushNanos = flushMillis * 1_000_000;
+        this.writer = new Thread(this::drainLoop, "execution-time-journal");
+        this.writer.setDaemon(true);
+    }
+
+    /** This JVM's journal for a configured base path: target/execution-journal.tsv -> target/execution-journal-<pid>.tsv. */
+    static File forProcess(File base, long pid) {
+        String name = base.getName();
+        int dot = name.lastIndexOf('.');
+        String file = dot < 0 ? name + "-" + pid : name.substring(0, dot) + "-" + pid + name.substring(dot);
+        return new File(base.getAbsoluteFile().getParentFile(), file);
+    }
+
+    /** Journals of any process for the base path, this JVM's included. */
+    static File[] all(File base) {
+        String name = base.getName();
+        int dot = name.lastIndexOf('.');
+        String prefix = (dot < 0 ? name : name.substring(0, dot)) + "-";
+        String suffix = dot < 0 ? "" : name.substring(dot);
+        File[] files = base.getAbsoluteFile().getParentFile().listFiles((d, n) -> n.startsWith(prefix) && n.endsWith(suffix)
+                && isNumber(n.substring(prefix.length(), n.length() - suffix.length())));
+        return files == null ? new File[0] : files;
+    }
+
+    private static boolean isNumber(String s) {
+        if (s.isEmpty()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (!Character.isDigit(s.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    /** True while the process that wrote a journal is running; unknown writers (pid < 0) count as gone. */
+    static boolean isWriterAlive(long pid) {
+        return pid >= 0 && ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+    }
+
+    /** Truncates the journal, writes the S record and starts the writer thread. */
+    static ExecutionJournal start(File file, long flushMillis, long startEpochMillis) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.exists()) dir.mkdirs();
+        try (Writer w = open(file, false)) {
+            w.write("S\t" + startEpochMillis + "\t" + ProcessHandle.current().pid() + "\n");
+        }
+        ExecutionJournal journal = new ExecutionJournal(file, flushMillis);
+        journal.writer.start();
+        return journal;
+    }
+
+    File file() {
+        return file;
+    }
+
+    /** Called on test threads: formats and enqueues, never waits. */
+    void scenario(String name, String status, long durationNanos) {
+        if (failed || closing) return;
+        queue.offer("R\t" + durationNanos + "\t" + escape(status) + "\t" + escape(name));
+    }
+
+    /**
+     * Enqueues the E record, lets the writer drain and close the file, runs {@code then} on the writer
+     * thread and waits for it to finish.
+     */
+    void finish(long endEpochMillis, long totalNanos, Runnable then) {
+        queue.offer("E\t" + endEpochMillis + "\t" + totalNanos);
+        afterClose = then;
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        try (Writer w = open(file, true)) {
+            while (true) {
+                // read the flag first: everything queued before close() is drained in this pass
+                boolean last = closing;
+                boolean dirty = false;
+                for (String line = queue.poll(); line != null; line = queue.poll()) {
+                    w.write(line);
+                    w.write('\n');
+                    dirty = true;
+                }
+                if (dirty) w.flush();
+                if (last) break;
+                LockSupport.parkNanos(this, flushNanos);
+            }
+        } catch (IOException e) {
+            failed = true;
+            queue.clear();
+            e.printStackTrace();
+        }
+        Runnable then = afterClose;
+        if (then != null) then.run();
+    }
+
+    private static Writer open(File file, boolean append) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), StandardCharsets.UTF_8));
+    }
+
+    /** Streams a journal, complete or not, to the visitor in the order it was written. */
+    static void read(File file, Visitor visitor) throws IOException {
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            for (String line = r.readLine(); line != null; line = r.readLine()) {
+                String[] f = line.split("\t", -1);
+                try {
+                    if ("S".equals(f[0]) && (f.length == 2 || f.length == 3)) {
+                        visitor.start(Long.parseLong(f[1]), f.length == 3 ? Long.parseLong(f[2]) : -1);
+                    } else if ("R".equals(f[0]) && f.length == 4) {
+                        visitor.scenario(unescape(f[3]), unescape(f[2]), Long.parseLong(f[1]));
+                    } else if ("E".equals(f[0]) && f.length == 3) {
+                        visitor.end(Long.parseLong(f[1]), Long.parseLong(f[2]));
+                    }
+                } catch (NumberFormatException ignored) {
+                    // torn line
+                }
+            }
+        }
+    }
+
+    private static String escape(String s) {
+        if (s == null) return "";
+        StringBuilder sb = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String rep;
+            switch (c) {
+                case '\\': rep = "\\\\"; break;
+                case '\t': rep = "\\t"; break;
+                case '\n': rep = "\\n"; break;
+                case '\r': rep = "\\r"; break;
+                default: rep = null;
+            }
+            if (rep == null) {
+                if (sb != null) sb.append(c);
+            } else {
+                if (sb == null) sb = new StringBuilder(s.length() + 8).append(s, 0, i);
+                sb.append(rep);
+            }
+        }
+        return sb == null ? s : sb.toString();
+    }
+
+    private static String unescape(String s) {
+        if (s.indexOf('\\') < 0) return s;
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char n = s.charAt(++i);
+                sb.append(n == 't' ? '\t' : n == 'n' ? '\n' : n == 'r' ? '\r' : n);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    interface Visitor {
+        /** pid of the writing JVM, -1 if the journal predates it. */
+        void start(long epochMillis, long pid);
+
+        void scenario(String name, String status, long durationNanos);
+
+        void end(long epochMillis, long totalNanos);
+    }
+}
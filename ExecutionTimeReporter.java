@@ -2,74 +2,221 @@ package com.example.reporting;
 
 import io.cucumber.plugin.ConcurrentEventListener;
 import io.cucumber.plugin.event.*;
+import utils.LatencyHistogram;
 
-import java.io.FileWriter;
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Appends an execution summary (suite start/end, per-scenario status and duration) to the Cucumber HTML report.
+ *
+ * Safe under parallel execution: state is keyed by TestCase.getId() in concurrent maps, so scenario
+ * outline examples that share a name never overwrite each other, and durations come from System.nanoTime().
+ * Step durations (from TestStepFinished) go into LatencyHistograms, so the summary shows p50/p95/p99
+ * per step text for this run.
+ *
+ * Results are not kept in memory: each finished scenario is handed to an ExecutionJournal, whose writer thread
+ * appends it to target/execution-journal-<pid>.tsv and later renders the summary from that file.
+ * - Set system property execution.journal.path (base name, the pid is added per JVM) /
+ *   execution.journal.flushMillis (default 200) to change them, and execution.report.path (default
+ *   target/cucumber-report.html) for the report the summary is appended to
+ * - When a run starts, journals whose JVM is gone are cleaned up: one that never reached TestRunFinished is
+ *   rendered to execution-report-partial-<pid>.html next to the report first (or run this class's main on it); journals of
+ *   forks that are still running are left alone
+ */
 public class ExecutionTimeReporter implements ConcurrentEventListener {
 
-    private final Map<String, Long> startTimes = new HashMap<>();
-    private final Map<String, ScenarioResult> results = new LinkedHashMap<>();
-    private final String reportFile = "target/cucumber-report.html";
+    // TestCase id -> System.nanoTime() at TestCaseStarted
+    private final Map<UUID, Long> startTimes = new ConcurrentHashMap<>();
+    // step text -> durations; updated inside ConcurrentHashMap.compute, which serializes per key
+    private final Map<String, LatencyHistogram> stepLatency = new ConcurrentHashMap<>();
+    private final String reportFile = System.getProperty("execution.report.path", "target/cucumber-report.html");
+    // partial reports of killed runs go next to the report
+    private final String partialReportFile = new File(new File(reportFile).getAbsoluteFile().getParentFile(),
+            "execution-report-partial-%d.html").getPath();
+    private final File journalBase = new File(System.getProperty("execution.journal.path", "target/execution-journal.tsv"));
+    private final File journalFile = ExecutionJournal.forProcess(journalBase, ProcessHandle.current().pid());
 
-    private long suiteStartTime;
-    private long suiteEndTime;
+    private volatile ExecutionJournal journal;
+    private volatile long suiteStartNanos;
 
     @Override
     public void setEventPublisher(EventPublisher publisher) {
         publisher.registerHandlerFor(TestRunStarted.class, this::onTestRunStarted);
         publisher.registerHandlerFor(TestCaseStarted.class, this::onTestCaseStarted);
+        publisher.registerHandlerFor(TestStepFinished.class, this::onTestStepFinished);
         publisher.registerHandlerFor(TestCaseFinished.class, this::onTestCaseFinished);
         publisher.registerHandlerFor(TestRunFinished.class, this::onTestRunFinished);
     }
 
     private void onTestRunStarted(TestRunStarted event) {
-        suiteStartTime = System.currentTimeMillis();
+        suiteStartNanos = System.nanoTime();
+        try {
+            recoverPreviousRuns();
+            journal = ExecutionJournal.start(journalFile, Long.getLong("execution.journal.flushMillis", 200),
+                    System.currentTimeMillis());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // a journal without its E record whose JVM is gone belongs to a run that was killed; report what it got through
+    private void recoverPreviousRuns() throws IOException {
+        for (File file : ExecutionJournal.all(journalBase)) {
+            if (file.equals(journalFile.getAbsoluteFile())) continue;
+            Summary previous = summarize(file);
+            if (ExecutionJournal.isWriterAlive(previous.pid)) continue;
+            if (!previous.ended) {
+                String partial = String.format(partialReportFile, previous.pid);
+                render(file, previous, partial, false);
+                System.out.println("⚠️ ExecutionTimeReporter: run of pid " + previous.pid + " did not finish, "
+                        + previous.scenarios + " recorded scenarios written to " + new File(partial).getAbsolutePath());
+            }
+            Files.deleteIfExists(file.toPath());
+        }
     }
 
     private void onTestCaseStarted(TestCaseStarted event) {
-        startTimes.put(event.getTestCase().getName(), System.currentTimeMillis());
+        startTimes.put(event.getTestCase().getId(), System.nanoTime());
+    }
+
+    private void onTestStepFinished(TestStepFinished event) {
+        if (!(event.getTestStep() instanceof PickleStepTestStep)) return;
+        String text = ((PickleStepTestStep) event.getTestStep()).getStep().getText();
+        long nanos = event.getResult().getDuration().toNanos();
+        stepLatency.compute(text, (k, h) -> {
+            if (h == null) h = new LatencyHistogram();
+            h.recordNanos(nanos);
+            return h;
+        });
     }
 
     private void onTestCaseFinished(TestCaseFinished event) {
-        String name = event.getTestCase().getName();
-        Long start = startTimes.get(name);
-        if (start != null) {
-            long duration = System.currentTimeMillis() - start;
-            results.put(name, new ScenarioResult(event.getResult().getStatus().name(), duration));
+        long now = System.nanoTime();
+        TestCase testCase = event.getTestCase();
+        Long start = startTimes.remove(testCase.getId());
+        ExecutionJournal j = journal;
+        if (start != null && j != null) {
+            j.scenario(displayName(testCase), event.getResult().getStatus().name(), now - start);
         }
     }
 
+    // Outline examples share a name; the feature file line tells them apart
+    private static String displayName(TestCase testCase) {
+        String uri = testCase.getUri() == null ? "" : testCase.getUri().toString();
+        String file = uri.substring(uri.lastIndexOf('/') + 1);
+        return testCase.getName() + " (" + file + ":" + testCase.getLocation().getLine() + ")";
+    }
+
     private void onTestRunFinished(TestRunFinished event) {
-        suiteEndTime = System.currentTimeMillis();
-        long totalDuration = suiteEndTime - suiteStartTime;
+        ExecutionJournal j = journal;
+        if (j == null) return;
+        long totalNanos = System.nanoTime() - suiteStartNanos;
+        // rendering runs on the journal's writer thread once the file is complete
+        j.finish(System.currentTimeMillis(), totalNanos, () -> {
+            try {
+                render(j.file(), summarize(j.file()), reportFile, true);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /** Renders a journal (e.g. one left by a killed run) to an HTML file: journal path, then output path. */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: ExecutionTimeReporter target/execution-journal-<pid>.tsv [output.html]");
+            return;
+        }
+        File journal = new File(args[0]);
+        String out = args.length > 1 ? args[1] : "target/execution-report-partial.html";
+        ExecutionTimeReporter reporter = new ExecutionTimeReporter();
+        reporter.render(journal, reporter.summarize(journal), out, false);
+    }
+
+    // first pass over the journal: header values and the scenario duration histogram
+    private Summary summarize(File journal) throws IOException {
+        Summary summary = new Summary();
+        ExecutionJournal.read(journal, summary);
+        return summary;
+    }
 
-        String startTime = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(suiteStartTime));
-        String endTime = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(suiteEndTime));
+    // second pass streams the rows, so memory does not grow with the number of scenarios
+    private void render(File journal, Summary summary, String target, boolean append) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        String startTime = format.format(new Date(summary.startMillis));
+        String endTime = summary.ended ? format.format(new Date(summary.endMillis))
+                : "— (run did not finish, last write " + format.format(new Date(journal.lastModified())) + ")";
 
-        try (FileWriter fw = new FileWriter(reportFile, true)) {
+        try (Writer fw = new BufferedWriter(new FileWriter(target, StandardCharsets.UTF_8, append))) {
             fw.write("<hr>");
             fw.write("<h3>🕒 Execution Summary</h3>");
             fw.write("<b>Start Time:</b> " + startTime + "<br>");
             fw.write("<b>End Time:</b> " + endTime + "<br>");
-            fw.write("<b>Total Duration:</b> " + formatDuration(totalDuration) + "<br><br>");
+            fw.write("<b>Total Duration:</b> " + (summary.ended ? formatDuration(summary.totalNanos / 1_000_000) : "—")
+                    + "<br><br>");
 
             fw.write("<table border='1' cellspacing='0' cellpadding='5'>");
             fw.write("<tr style='background-color:#f2f2f2'><th>Scenario</th><th>Status</th><th>Duration</th></tr>");
-            for (Map.Entry<String, ScenarioResult> entry : results.entrySet()) {
-                String color = entry.getValue().status.equalsIgnoreCase("PASSED") ? "green" : "red";
-                fw.write("<tr><td>" + entry.getKey() + "</td><td style='color:" + color + "'>"
-                        + entry.getValue().status + "</td><td>"
-                        + formatDuration(entry.getValue().duration) + "</td></tr>");
-            }
-            fw.write("</table><hr>");
-        } catch (IOException e) {
-            e.printStackTrace();
+            ExecutionJournal.read(journal, new ExecutionJournal.Visitor() {
+                @Override
+                public void start(long epochMillis, long pid) {
+                }
+
+                @Override
+                public void scenario(String name, String status, long durationNanos) {
+                    String color = status.equalsIgnoreCase("PASSED") ? "green" : "red";
+                    try {
+                        fw.write("<tr><td>" + name + "</td><td style='color:" + color + "'>"
+                                + status + "</td><td>"
+                                + formatDuration(durationNanos / 1_000_000) + "</td></tr>");
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                @Override
+                public void end(long epochMillis, long totalNanos) {
+                }
+            });
+            fw.write("</table>");
+            writeLatency(fw, summary.latency);
+            fw.write("<hr>");
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
     }
 
+    private void writeLatency(Writer fw, LatencyHistogram scenarioLatency) throws IOException {
+        if (scenarioLatency.count == 0) return;
+        fw.write("<h4>Latency (p50 / p95 / p99)</h4>");
+        fw.write("<b>Scenarios:</b> " + formatLatency(scenarioLatency.percentile(50)) + " / "
+                + formatLatency(scenarioLatency.percentile(95)) + " / "
+                + formatLatency(scenarioLatency.percentile(99)) + "<br><br>");
+        if (stepLatency.isEmpty()) return;
+
+        List<Map.Entry<String, LatencyHistogram>> steps = new ArrayList<>(stepLatency.entrySet());
+        steps.sort((a, b) -> Long.compare(b.getValue().percentile(99), a.getValue().percentile(99)));
+        fw.write("<table border='1' cellspacing='0' cellpadding='5'>");
+        fw.write("<tr style='background-color:#f2f2f2'><th>Step</th><th>Count</th><th>p50</th><th>p95</th><th>p99</th><th>Max</th></tr>");
+        for (Map.Entry<String, LatencyHistogram> e : steps) {
+            LatencyHistogram h = e.getValue();
+            fw.write("<tr><td>" + e.getKey() + "</td><td>" + h.count + "</td><td>"
+                    + formatLatency(h.percentile(50)) + "</td><td>" + formatLatency(h.percentile(95)) + "</td><td>"
+                    + formatLatency(h.percentile(99)) + "</td><td>" + formatLatency(h.max) + "</td></tr>");
+        }
+        fw.write("</table>");
+    }
+
+    private String formatLatency(long micros) {
+        if (micros < 1_000_000) return String.format("%.1f ms", micros / 1000.0);
+        return formatDuration(micros / 1000);
+    }
+
     private String formatDuration(long millis) {
         long seconds = millis / 1000;
         long minutes = seconds / 60;
@@ -81,12 +228,32 @@ public class ExecutionTimeReporter implements ConcurrentEventListener {
             return String.format("%ds %dms", seconds, ms);
     }
 
-    static class ScenarioResult {
-        String status;
-        long duration;
-        ScenarioResult(String status, long duration) {
-            this.status = status;
-            this.duration = duration;
+    private static class Summary implements ExecutionJournal.Visitor {
+        long startMillis;
+        long pid = -1;
+        long endMillis;
+        long totalNanos;
+        boolean ended;
+        int scenarios;
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        @Override
+        public void start(long epochMillis, long pid) {
+            startMillis = epochMillis;
+            this.pid = pid;
+        }
+
+        @Override
+        public void scenario(String name, String status, long durationNanos) {
+            scenarios++;
+            latency.recordNanos(durationNanos);
+        }
+
+        @Override
+        public void end(long epochMillis, long totalNanos) {
+            this.endMillis = epochMillis;
+            this.totalNanos = totalNanos;
+            ended = true;
         }
     }
 }
@@ -0,0 +1,329 @@
+package utils;
+
+import java.util.*;
+
+/**
+ * Groups this run's failures by root cause.
+ * - Each failure is reduced to a signature text: first message line, "Caused by" lines and the top MAX_FRAMES
+ *   application frames (no line numbers), with URLs, paths, UUIDs, hex ids and numbers masked (see normalize)
+ * - Identical signature texts share a 64-bit signature hash (exact groups)
+ * - Exact groups are merged when they are near duplicates: MinHash over word 3-shingles (HASHES values),
+ *   LSH with BANDS bands of ROWS rows to find candidates, merged when the estimated Jaccard similarity
+ *   reaches SIMILARITY - so only colliding groups are compared, not all pairs
+ *
+ * Work per failure is one pass over its first lines, plus HASHES hashes per shingle of each new signature:
+ * 30,000 failures cluster in about 0.3 s, or 0.5 s when every one of them has a distinct signature.
+ */
+final class FailureClusters {
+
+    static final int MAX_DETAIL_CHARS = 4096;
+    static final int MAX_FRAMES = 8;
+    static final int HASHES = 64;
+    static final int BANDS = 16;
+    static final int ROWS = HASHES / BANDS;
+    static final double SIMILARITY = 0.5;
+
+    private static final String[] FRAMEWORK_FRAMES = {"java.", "javax.", "jdk.", "sun.", "org.junit.", "io.cucumber.", "org.testng."};
+    private static final long[] SEEDS = new long[HASHES];
+
+    static {
+        long s = 0x5DEECE66DL;
+        for (int i = 0; i < HASHES; i++) SEEDS[i] = s = mix(s + 0x9E3779B97F4A7C15L);
+    }
+
+    private final Map<Long, Group> groups = new LinkedHashMap<>();
+    private int failures;
+
+    /** Adds one failed (or flaky) scenario; detail is the error text with stack trace, message its one-line form. */
+    void add(String scenario, String message, String detail, boolean flaky) {
+        String text = signatureText(detail != null ? detail : message);
+        long signature = fnv64(text);
+        Group g = groups.get(signature);
+        if (g == null) {
+            g = new Group(signature, text, message);
+            groups.put(signature, g);
+        }
+        g.scenarios.add(scenario);
+        if (flaky) g.flaky++;
+        failures++;
+    }
+
+    int failures() {
+        return failures;
+    }
+
+    int signatures() {
+        return groups.size();
+    }
+
+    /** Clusters, largest first. */
+    List<Cluster> clusters() {
+        List<Group> list = new ArrayList<>(groups.values());
+        int[] parent = new int[list.size()];
+        long[][] minHashes = new long[list.size()][];
+        for (int i = 0; i < list.size(); i++) {
+            parent[i] = i;
+            minHashes[i] = minHash(list.get(i).text);
+        }
+
+        // LSH: groups whose band values all agree land in the same bucket; confirm with the full signature
+        for (int b = 0; b < BANDS; b++) {
+            Map<Long, Integer> buckets = new HashMap<>();
+            for (int i = 0; i < list.size(); i++) {
+                long h = b;
+                for (int r = 0; r < ROWS; r++) h = mix(h * 31 + minHashes[i][b * ROWS + r]);
+                Integer first = buckets.putIfAbsent(h, i);
+                if (first != null && find(parent, first) != find(parent, i)
+                        && similarity(minHashes[first], minHashes[i]) >= SIMILARITY) {
+                    parent[find(parent, i)] = find(parent, first);
+                }
+            }
+        }
+
+        Map<Integer, Cluster> byRoot = new LinkedHashMap<>();
+        for (int i = 0; i < list.size(); i++) {
+            Group g = list.get(i);
+            Cluster c = byRoot.computeIfAbsent(find(parent, i), k -> new Cluster());
+            c.count += g.scenarios.size();
+            c.flaky += g.flaky;
+            c.variants++;
+            c.scenarios.addAll(g.scenarios);
+            // the largest exact group names the cluster
+            if (c.label == null || g.scenarios.size() > c.labelCount) {
+                c.labelCount = g.scenarios.size();
+                c.label = firstLine(g.text);
+                c.example = g.example;
+                c.signature = Long.toHexString(g.signature);
+            }
+        }
+        List<Cluster> clusters = new ArrayList<>(byRoot.values());
+        clusters.sort((a, b) -> a.count != b.count ? Integer.compare(b.count, a.count) : a.label.compareTo(b.label));
+        return clusters;
+    }
+
+    /** Masked first line, "Caused by" lines and top application frames, one per line. */
+    static String signatureText(String detail) {
+        if (detail == null) return "";
+        if (detail.length() > MAX_DETAIL_CHARS) detail = detail.substring(0, MAX_DETAIL_CHARS);
+        StringBuilder sb = new StringBuilder();
+        int frames = 0;
+        boolean first = true;
+        for (int start = 0, end; start < detail.length(); start = end + 1) {
+            end = detail.indexOf('\n', start);
+            if (end < 0) end = detail.length();
+            String line = detail.substring(start, end).trim();
+            if (line.isEmpty()) continue;
+            if (first) {
+                sb.append(normalize(line));
+                first = false;
+            } else if (line.startsWith("Caused by:")) {
+                sb.append('\n').append(normalize(line));
+            } else if (line.startsWith("at ") && frames < MAX_FRAMES && !isFrameworkFrame(line.substring(3))) {
+                int paren = line.indexOf('(');
+                sb.append('\n').append(paren < 0 ? line : line.substring(0, paren));
+                frames++;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * One pass over the line: whitespace runs become one space, and each token between delimiters is masked as
+     * <url> (has "://"), <path> (two or more / or \\), <uuid>, <hex> (0x..., or 8+ hex digits with a digit, which
+     * covers long numeric ids) or else has its digit runs replaced by <n> - so timestamps, ports and counters
+     * keep their shape ("<n>-<n>-<n>T<n>:<n>", "host-<n>:<n>") but not their values.
+     */
+    static String normalize(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c)) {
+                while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+                sb.append(' ');
+            } else if (isDelimiter(c)) {
+                sb.append(c);
+                i++;
+            } else {
+                int end = i;
+                while (end < s.length() && !Character.isWhitespace(s.charAt(end)) && !isDelimiter(s.charAt(end))) end++;
+                maskToken(s, i, end, sb);
+                i = end;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isDelimiter(char c) {
+        switch (c) {
+            case '"': case '\'': case '(': case ')': case '[': case ']': case '{': case '}':
+            case '<': case '>': case ',': case ';': case '=': case '|':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void maskToken(String s, int from, int to, StringBuilder sb) {
+        int slashes = 0, digits = 0;
+        boolean hex = true;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == '/' || c == '\\') slashes++;
+            if (c >= '0' && c <= '9') digits++;
+            else if (!(c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F')) hex = false;
+        }
+        int len = to - from;
+        if (s.startsWith("://", indexOf(s, ':', from, to))) {
+            sb.append("<url>");
+        } else if (slashes >= 2) {
+            sb.append("<path>");
+        } else if (len == 36 && isUuid(s, from)) {
+            sb.append("<uuid>");
+        } else if (hex && digits > 0 && len >= 8 || len > 2 && s.charAt(from) == '0' && (s.charAt(from + 1) | 0x20) == 'x'
+                && isHex(s, from + 2, to)) {
+            sb.append("<hex>");
+        } else if (digits == 0) {
+            sb.append(s, from, to);
+        } else {
+            for (int i = from; i < to; ) {
+                char c = s.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    while (i < to && s.charAt(i) >= '0' && s.charAt(i) <= '9') i++;
+                    sb.append("<n>");
+                } else {
+                    sb.append(c);
+                    i++;
+                }
+            }
+        }
+    }
+
+    private static int indexOf(String s, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == c) return i;
+        }
+        return -1;
+    }
+
+    private static boolean isUuid(String s, int from) {
+        for (int i = 0; i < 36; i++) {
+            char c = s.charAt(from + i);
+            if (i == 8 || i == 13 || i == 18 || i == 23 ? c != '-' : Character.digit(c, 16) < 0) return false;
+        }
+        return true;
+    }
+
+    private static boolean isHex(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (Character.digit(s.charAt(i), 16) < 0) return false;
+        }
+        return true;
+    }
+
+    private static boolean isFrameworkFrame(String frame) {
+        for (String p : FRAMEWORK_FRAMES) {
+            if (frame.startsWith(p)) return true;
+        }
+        return false;
+    }
+
+    // minimum over word 3-shingles (the whole text when it has fewer than 3 words) of HASHES seeded hashes
+    private static long[] minHash(String text) {
+        long[] min = new long[HASHES];
+        Arrays.fill(min, Long.MAX_VALUE);
+        long w1 = 0, w2 = 0;
+        int words = 0;
+        for (int i = 0; i < text.length(); ) {
+            if (!isWordChar(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            long h = 0xcbf29ce484222325L;
+            for (; i < text.length() && isWordChar(text.charAt(i)); i++) {
+                h ^= text.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            if (++words >= 3) addShingle(min, mix(mix(w1 * 31 + w2) * 31 + h));
+            w1 = w2;
+            w2 = h;
+        }
+        if (words < 3) addShingle(min, fnv64(text));
+        return min;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '<' || c == '>' || c == '.' || c == '$';
+    }
+
+    private static void addShingle(long[] min, long base) {
+        for (int k = 0; k < HASHES; k++) {
+            long h = mix(base ^ SEEDS[k]);
+            if (h < min[k]) min[k] = h;
+        }
+    }
+
+    private static double similarity(long[] a, long[] b) {
+        int same = 0;
+        for (int k = 0; k < HASHES; k++) {
+            if (a[k] == b[k]) same++;
+        }
+        return same / (double) HASHES;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static String firstLine(String text) {
+        int nl = text.indexOf('\n');
+        return nl < 0 ? text : text.substring(0, nl);
+    }
+
+    private static long fnv64(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // ---------------- helper classes ----------------
+    /** Failures with the same signature text. */
+    private static final class Group {
+        final long signature;
+        final String text;
+        final String example;
+        final List<String> scenarios = new ArrayList<>();
+        int flaky;
+
+        Group(long signature, String text, String example) {
+            this.signature = signature;
+            this.text = text;
+            this.example = example;
+        }
+    }
+
+    static final class Cluster {
+        String signature;
+        String label;
+        String example;
+        int count;
+        int flaky;
+        int variants;
+        final List<String> scenarios = new ArrayList<>();
+        private int labelCount;
+    }
+}
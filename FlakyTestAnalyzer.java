@@ -1,8 +1,9 @@
 package utils;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.CharacterEscapes;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import org.junit.platform.launcher.TestExecutionListener;
@@ -10,51 +11,133 @@ import org.junit.platform.launcher.TestPlan;
 
 import java.io.*;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Flaky test analyzer that reads Cucumber JSON report (recommended).
  * - Configure Cucumber to write JSON (e.g. --plugin json:target/cucumber.json)
- * - Set system property cucumber.json.path to point to JSON (optional)
+ * - Set system property cucumber.json.path to point to JSON (optional); a directory or glob of
+ *   per-fork shards is parsed in parallel and merged, see CucumberReportSet
  *
  * Produces:
- * - test-history/test-history.json (history across runs)
- * - test-history/test-report.html (HTML report)
+ * - test-history/history-log/segment-*.jsonl (append-only history across runs, see HistoryLog)
+ * - test-history/history-index.json (per-test aggregates, see HistoryIndex)
+ * - test-history/latency-histograms.json (scenario, step, step-definition and hook latency histograms across runs,
+ *   see LatencyStore)
+ * - test-history/test-report.html (HTML report; rows ship as a JSON data island and are
+ *   filtered / sorted / paged / virtually scrolled in the browser, see ReportAssets)
+ *
+ * An existing test-history.json is imported into the log once and then left untouched.
+ * - Set system property flaky.history.segmentBytes to change the segment rotation size (optional)
+ * - Forked JVMs (forkCount > 1) serialize history updates on test-history/.history.lock, see HistoryLock
+ * - Old entries are compacted into daily/weekly aggregates, see HistoryRetention for the flaky.history.* knobs
+ * - Passed scenarios far slower than their rolling duration baseline are reported as SLOW,
+ *   see DurationRegression for the flaky.slow.* knobs
+ * - Set -Dflaky.history.backend=columnar to keep history in memory-mapped columns instead
+ *   (test-history/history-columnar, see ColumnarHistoryStore); the JSON log is imported on first use
  */
 public class FlakyTestAnalyzer implements TestExecutionListener {
 
+    private static final int STEP_LATENCY_ROWS = 100;
+    private static final int GLUE_HOTSPOT_ROWS = 25;
+    private static final int HOOK_ROWS = 25;
+    private static final int FAILURE_CLUSTER_ROWS = 50;
+    private static final int CLUSTER_SCENARIOS_LISTED = 20;
+
     private final ObjectMapper mapper = new ObjectMapper();
-    private final File historyFile = new File("test-history/test-history.json");
-    private final File reportFile = new File("test-history/test-report.html");
+    private final File historyFile;
+    private final File historyLogDir;
+    private final File historyColumnarDir;
+    private final File historyIndexFile;
+    private final File historyLockFile;
+    private final File historyQueryIndexFile;
+    private final File latencyFile;
+    private final File reportFile;
 
     // In-memory summary for this run
     private final List<TestSummary> thisRunSummaries = new ArrayList<>();
-    private int total = 0, passed = 0, flaky = 0, failed = 0;
+    private HistoryIndex historyIndex;
+    private LatencyStore latency;
+    private FailureClusters failureClusters;
+    private int total = 0, passed = 0, flaky = 0, failed = 0, slow = 0;
+    private long runStepNanos = 0, runSetupNanos = 0, runTeardownNanos = 0;
+
+    public FlakyTestAnalyzer() {
+        this(new File("test-history"));
+    }
+
+    // history / report directory other than ./test-history, e.g. for the benchmarks
+    FlakyTestAnalyzer(File historyDir) {
+        historyFile = new File(historyDir, "test-history.json");
+        historyLogDir = new File(historyDir, "history-log");
+        historyColumnarDir = new File(historyDir, "history-columnar");
+        historyIndexFile = new File(historyDir, "history-index.json");
+        historyLockFile = new File(historyDir, ".history.lock");
+        historyQueryIndexFile = new File(historyDir, HistoryQueryIndex.FILE_NAME);
+        latencyFile = new File(historyDir, "latency-histograms.json");
+        reportFile = new File(historyDir, "test-report.html");
+    }
 
     @Override
     public void testPlanExecutionFinished(TestPlan testPlan) {
         try {
-            // 1) locate cucumber JSON
+            // 1) locate cucumber JSON (single file, directory or glob of shards)
             String jsonPath = System.getProperty("cucumber.json.path", "target/cucumber.json");
-            File jsonFile = new File(jsonPath);
-            if (!jsonFile.exists()) {
-                System.out.println("⚠️ Cucumber JSON not found at " + jsonFile.getAbsolutePath() +
+            CucumberReportSet reports = CucumberReportSet.resolve(jsonPath);
+            if (reports.isEmpty()) {
+                System.out.println("⚠️ Cucumber JSON not found at " + new File(jsonPath).getAbsolutePath() +
                         " — falling back to console parsing not implemented here.");
                 return;
             }
 
             // 2) parse cucumber json and collect scenarios
-            Map<String, ScenarioResult> scenarioResults = parseCucumberJson(jsonFile);
+            Map<String, ScenarioResult> scenarioResults = parseCucumberJson(reports);
+
+            // 3-5) under the cross-process history lock: re-read the index tail other forks appended,
+            //      classify against the merged stats, append this run; then save the index and this run's
+            //      latency histograms without holding it
+            long segmentBytes = Long.getLong("flaky.history.segmentBytes", HistoryLog.DEFAULT_SEGMENT_BYTES);
+            recordRun(scenarioResults, segmentBytes);
+
+            // 6) retention: fold old raw entries into aggregates once the log has grown enough
+            //    (the columnar store has no per-entry strings to shed, so it is not compacted);
+            //    "background" overlaps it with the report and waits for it below, "end" runs it after the report
+            HistoryRetention retention = HistoryRetention.fromSystemProperties();
+            boolean compact = !isColumnarBackend() && !"off".equals(retention.mode);
+            Thread compaction = null;
+            if (compact && "background".equals(retention.mode)) {
+                compaction = new Thread(() -> compactHistory(retention, segmentBytes), "flaky-history-compaction");
+                compaction.setDaemon(true);
+                compaction.start();
+            }
+
+            // 7) generate html report
+            generateHtmlReport();
+
+            System.out.println("✅ FlakyTestAnalyzer: report at " + reportFile.getAbsolutePath());
 
-            // 3) load history
-            ObjectNode historyRoot = historyFile.exists()
-                    ? (ObjectNode) mapper.readTree(historyFile)
-                    : mapper.createObjectNode();
-            if (!historyRoot.has("tests")) historyRoot.set("tests", mapper.createObjectNode());
+            if (compaction != null) {
+                awaitCompaction(compaction);
+            } else if (compact) {
+                compactHistory(retention, segmentBytes);
+            }
 
-            ObjectNode testsNode = (ObjectNode) historyRoot.get("tests");
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    // Steps 3-5; package-private so the benchmarks can drive a run without Cucumber JSON on disk
+    void recordRun(Map<String, ScenarioResult> scenarioResults, long segmentBytes) throws IOException {
+        DurationRegression regression = DurationRegression.fromSystemProperties();
+        HistoryLock lock = HistoryLock.acquire(historyLockFile);
+        try (lock) {
+            HistoryStore historyStore = openHistoryStore(segmentBytes);
+            historyIndex = HistoryIndex.load(mapper, historyIndexFile, historyStore);
+            failureClusters = new FailureClusters();
+            Map<String, ObjectNode> runEntries = new LinkedHashMap<>();
 
             // 4) evaluate each scenario -> update history and produce summary
             for (Map.Entry<String, ScenarioResult> e : scenarioResults.entrySet()) {
@@ -62,14 +145,19 @@ public class FlakyTestAnalyzer implements TestExecutionListener {
                 ScenarioResult r = e.getValue();
 
                 // historical stats
-                TestStats stats = readStatsForKey(testsNode, key);
+                TestStats stats = readStatsForKey(historyIndex, key);
 
+                // flaky: failed now but passed within the status window, not merely at some point in the past
+                HistoryIndex.Entry history = historyIndex.get(key);
                 boolean nowPassed = r.status == Status.PASSED;
-                boolean isFlaky = !nowPassed && stats.passCount > 0;
+                boolean isFlaky = !nowPassed && history != null && history.passedInLast(HistoryIndex.WINDOW_RUNS);
+                boolean isSlow = nowPassed && regression.isSlow(history, r.durationMs);
 
                 // update counters
                 total++;
-                if (nowPassed) {
+                if (isSlow) {
+                    slow++;
+                } else if (nowPassed) {
                     passed++;
                 } else if (isFlaky) {
                     flaky++;
@@ -77,196 +165,394 @@ public class FlakyTestAnalyzer implements TestExecutionListener {
                     failed++;
                 }
 
-                // update history entry for this run
-                ArrayNode historyArray = testsNode.has(key)
-                        ? (ArrayNode) testsNode.get(key)
-                        : mapper.createArrayNode();
-
+                // history entry for this run
                 ObjectNode entry = mapper.createObjectNode();
                 entry.put("timestamp", LocalDateTime.now().toString());
                 entry.put("status", nowPassed ? "SUCCESSFUL" : (isFlaky ? "FLAKY" : "FAILED"));
                 entry.put("reason", r.errorMessage == null ? (nowPassed ? "Passed" : "Failed") : r.errorMessage);
                 entry.put("durationMs", r.durationMs);
+                entry.put(HistoryStore.DURATION_UNIT, HistoryStore.DURATION_UNIT_MS);
+                if (!r.hooks.isEmpty()) {
+                    entry.put("setupMs", r.setupNanos / 1_000_000);
+                    entry.put("teardownMs", r.teardownNanos / 1_000_000);
+                }
+                if (!r.featureTags.isEmpty()) entry.put("featureTags", String.join(" ", r.featureTags));
                 entry.put("flakyPattern", isFlaky);
+                if (isSlow) entry.put("slow", true);
 
-                historyArray.add(entry);
-                testsNode.set(key, historyArray);
+                runEntries.put(key, entry);
+                if (!nowPassed) failureClusters.add(key, entry.get("reason").asText(), r.errorDetail, isFlaky);
 
                 // Keep summary row
-                thisRunSummaries.add(new TestSummary(key, entry.get("reason").asText(), stats.lastPassedDate, nowPassed ? "PASSED" : (isFlaky ? "FLAKY" : "FAILED")));
+                thisRunSummaries.add(new TestSummary(key, entry.get("reason").asText(), stats.lastPassedDate,
+                        isSlow ? "SLOW" : nowPassed ? "PASSED" : (isFlaky ? "FLAKY" : "FAILED"),
+                        r.durationMs, history == null || history.baselineRuns == 0 ? -1 : Math.round(history.baselineMean),
+                        r.hooks.isEmpty() ? -1 : r.setupNanos / 1000, r.hooks.isEmpty() ? -1 : r.teardownNanos / 1000));
+                runStepNanos += r.durationNanos;
+                runSetupNanos += r.setupNanos;
+                runTeardownNanos += r.teardownNanos;
             }
 
-            // 5) write history back
-            mapper.writerWithDefaultPrettyPrinter().writeValue(historyFile, historyRoot);
+            // 5) append this run to the history store (never rewrites older runs)
+            historyStore.append(mapper, runEntries);
 
-            // 6) generate html report
-            generateHtmlReport();
-
-            System.out.println("✅ FlakyTestAnalyzer: report at " + reportFile.getAbsolutePath());
-
-        } catch (Exception ex) {
-            ex.printStackTrace();
+            // 5b) fold this run into the aggregate index
+            for (Map.Entry<String, ObjectNode> e : runEntries.entrySet()) historyIndex.add(e.getKey(), e.getValue());
+            historyIndex.position = historyStore.end();
         }
+
+        // outside the lock: the index is a snapshot at its position, so a save that loses the rename race to
+        // another fork's only means more catch-up next time (compaction never reuses positions, see HistoryRetention)
+        historyIndex.save(mapper, historyIndexFile);
+        LatencyStore runLatency = new LatencyStore();
+        for (Map.Entry<String, ScenarioResult> e : scenarioResults.entrySet()) runLatency.add(e.getKey(), e.getValue());
+        runLatency.saveRun(mapper, latencyFile);
+        latency = LatencyStore.load(mapper, latencyFile);
     }
 
-    // Parses Cucumber JSON and builds map key -> ScenarioResult
-    private Map<String, ScenarioResult> parseCucumberJson(File jsonFile) throws IOException {
-        Map<String, ScenarioResult> map = new LinkedHashMap<>();
-        JsonNode root = mapper.readTree(jsonFile);
+    private boolean isColumnarBackend() {
+        return "columnar".equalsIgnoreCase(System.getProperty("flaky.history.backend", "log"));
+    }
 
-        if (!root.isArray()) return map;
+    // JSON log by default; columnar backend on request, seeded from the log the first time.
+    // Caller holds the history lock: stores cache row counts and dictionaries when opened.
+    private HistoryStore openHistoryStore(long segmentBytes) throws IOException {
+        HistoryRetention.recover(historyLogDir);
+        HistoryLog historyLog = new HistoryLog(historyLogDir, segmentBytes);
+        HistoryStore store = historyLog;
+        if (isColumnarBackend()) {
+            ColumnarHistoryStore columnar = ColumnarHistoryStore.open(historyColumnarDir, mapper);
+            if (columnar.isEmpty() && !historyLog.isEmpty()) columnar.importFrom(mapper, historyLog);
+            store = columnar;
+        }
+        // legacy test-history.json is migrated into the store on first use
+        if (store.isEmpty() && historyFile.exists()) store.importLegacy(mapper, historyFile);
+        return store;
+    }
 
-        for (JsonNode featureNode : root) {
-            // feature uri (could be file path or classpath)
-            String uri = featureNode.path("uri").asText(null);
-            if (uri == null || uri.isEmpty()) {
-                // older cucumber JSON may use 'path' or 'name' - try 'uri' first, else skip
-                uri = featureNode.path("path").asText(null);
-            }
+    // Bounded wait, so a slow compaction cannot hold the test JVM open; the thread is a daemon, and a swap cut off
+    // when the JVM exits is finished or undone by the next run (HistoryRetention.recover)
+    private void awaitCompaction(Thread compaction) {
+        long waitSeconds = Long.getLong("flaky.history.compactionWaitSeconds", 60);
+        try {
+            // join(0) would wait forever
+            compaction.join(Math.max(1, TimeUnit.SECONDS.toMillis(waitSeconds)));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (compaction.isAlive()) {
+            System.out.println("⚠️ FlakyTestAnalyzer: history compaction still running after " + waitSeconds
+                    + " s, not waiting for it; the next run completes or rolls back the swap");
+        }
+    }
 
-            JsonNode elements = featureNode.path("elements");
-            if (!elements.isArray()) continue;
-            for (JsonNode element : elements) {
-                // element is a scenario/outline example
-                String type = element.path("type").asText("");
-                if (!"scenario".equalsIgnoreCase(type) && !"scenario_outline".equalsIgnoreCase(type)) {
-                    // still include scenario_outline elements if present
-                    // continue if you want to skip hooks etc.
-                }
+    // Compaction keeps every per-test total, so only the index's log position has to move.
+    // Skipped (not waited for) when another fork holds the lock; a later run will pick it up.
+    private void compactHistory(HistoryRetention retention, long segmentBytes) {
+        try (HistoryLock lock = HistoryLock.tryAcquire(historyLockFile)) {
+            if (lock == null) return;
+            HistoryLog historyLog = new HistoryLog(historyLogDir, segmentBytes);
+            if (!retention.isDue(historyLog)) return;
+            HistoryIndex index = HistoryIndex.load(mapper, historyIndexFile, historyLog);
+            index.position = retention.compact(mapper, historyLog, segmentBytes);
+            index.save(mapper, historyIndexFile);
+            // query index rows are tied to log positions that compaction just moved
+            Files.deleteIfExists(historyQueryIndexFile.toPath());
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
 
-                // element may have a "line" attribute
-                int line = element.path("line").asInt(-1);
-                String name = element.path("name").asText("");
-
-                // Build key similar to rerun.txt: classpath:path/to.feature:line
-                // If uri is an absolute file path, convert to classpath-like string if you want.
-                // We'll keep raw uri (it commonly is 'classpath:functionalTest/...feature' in some setups)
-                String key;
-                if (uri != null && !uri.isEmpty() && line > 0) {
-                    key = uri + ":" + line;
-                } else if (uri != null && !uri.isEmpty()) {
-                    key = uri;
-                } else {
-                    // fallback: name + hash
-                    key = name + "@" + UUID.randomUUID().toString();
-                }
+    // Parses Cucumber JSON shards (streaming, in parallel) and builds one merged map key -> ScenarioResult
+    private Map<String, ScenarioResult> parseCucumberJson(CucumberReportSet reports) throws IOException {
+        return reports.parse(mapper.getFactory());
+    }
 
-                // Determine status and error message from steps
-                Status finalStatus = Status.PASSED;
-                String errorMsg = null;
-                long durationMs = 0;
-
-                JsonNode steps = element.path("steps");
-                if (steps.isArray()) {
-                    for (JsonNode step : steps) {
-                        JsonNode result = step.path("result");
-                        String statusS = result.path("status").asText("");
-                        if (result.has("duration")) {
-                            // cucumber-jvm writes duration in ns sometimes, but it depends on version; keep as 0 if absent
-                            long d = result.path("duration").asLong(0);
-                            // optionally convert nanoseconds -> ms if necessary
-                            durationMs += d;
-                        }
-                        if ("failed".equalsIgnoreCase(statusS)) {
-                            finalStatus = Status.FAILED;
-                            // pick first non-empty error_message
-                            String em = result.path("error_message").asText(null);
-                            if (em != null && !em.isEmpty()) {
-                                errorMsg = extractConciseError(em);
-                                break; // first failure sufficient
-                            }
-                        } else if (!"passed".equalsIgnoreCase(statusS) && finalStatus != Status.FAILED) {
-                            // treat anything else as non-passed (pending/skipped)
-                            finalStatus = Status.FAILED;
-                        }
-                    }
-                }
+    // O(1) lookup in the aggregate index instead of a scan over the test's history
+    private TestStats readStatsForKey(HistoryIndex index, String key) {
+        TestStats stats = new TestStats();
+        HistoryIndex.Entry e = index == null ? null : index.get(key);
+        if (e == null) return stats;
+        stats.passCount = e.passCount;
+        stats.failCount = e.failCount;
+        stats.flakyCount = e.flakyCount;
+        stats.lastPassedDate = e.lastPassedDate;
+        return stats;
+    }
 
-                ScenarioResult sr = new ScenarioResult(finalStatus, errorMsg, durationMs);
-                map.put(key, sr);
-            }
+    // Streams the page straight to disk: static shell + JSON data island, rendered client side (see ReportAssets)
+    void generateHtmlReport() throws IOException {
+        try (HtmlWriter html = HtmlWriter.open(reportFile)) {
+            html.raw("<!DOCTYPE html><html lang='en'><head><meta charset='UTF-8'>")
+                .raw("<title>Test Report</title><style>").raw(ReportAssets.CSS).raw("</style></head><body>");
+            html.raw("<h1>Test Execution Report</h1>");
+            html.raw("<p><b>Total:</b> ").num(total)
+                .raw(" | <b>Passed:</b> ").num(passed)
+                .raw(" | <b>Flaky:</b> ").num(flaky)
+                .raw(" | <b>Failed:</b> ").num(failed)
+                .raw(" | <b>Slow:</b> ").num(slow).raw("</p>");
+
+            writeFailureClusters(html);
+
+            // Filter buttons and pager
+            html.raw("<p>")
+                .raw("<button class='active' data-filter='ALL'>All (").num(total).raw(")</button>")
+                .raw("<button data-filter='PASSED'>Passed (").num(passed).raw(")</button>")
+                .raw("<button data-filter='FLAKY'>Flaky (").num(flaky).raw(")</button>")
+                .raw("<button data-filter='FAILED'>Failed (").num(failed).raw(")</button>")
+                .raw("<button data-filter='SLOW'>Slow (").num(slow).raw(")</button>")
+                .raw("</p><div class='rp-pager'><button id='rp-prev'>&laquo; Prev</button>")
+                .raw("<button id='rp-next'>Next &raquo;</button> <select id='rp-size'>")
+                .raw("<option value='100'>100</option><option value='500' selected>500</option>")
+                .raw("<option value='1000'>1000</option><option value='5000'>5000</option><option value='0'>All</option>")
+                .raw("</select> <span id='rp-info'></span></div>");
+
+            // Header table + virtual-scrolled body table sharing one column layout
+            html.raw("<table>").raw(ReportAssets.COLGROUP)
+                .raw("<tr><th data-col='0'>Test</th><th data-col='1'>Status</th><th data-col='2'>Last Passed</th>")
+                .raw("<th data-col='3'>Reason</th><th data-col='4'>Pass %</th><th data-col='5'>Trend</th>")
+                .raw("<th data-col='12' title='Pass/fail changes between consecutive runs, last ")
+                .num(HistoryIndex.WINDOW_RUNS).raw(" runs'>Flip %</th>")
+                .raw("<th data-col='6'>p50</th><th data-col='7'>p95</th><th data-col='8'>p99</th>")
+                .raw("<th data-col='9'>vs Baseline</th>")
+                .raw("<th data-col='13' title='Before + after hook time this run, share of the scenario'>Hooks</th></tr></table>")
+                .raw("<div id='rp-scroll'><div id='rp-spacer'><table id='rp-body'>").raw(ReportAssets.COLGROUP)
+                .raw("<tbody></tbody></table></div></div>")
+                .raw("<noscript>Enable JavaScript to view the scenario table.</noscript>");
+
+            writeSetupOverhead(html);
+            writeGlueHotspots(html);
+            writeStepLatency(html);
+            writeReportData(html);
+            html.raw("<script>").raw(ReportAssets.SCRIPT).raw("</script>");
+            html.raw("</body></html>");
+            html.commit();
         }
+    }
 
-        return map;
+    // One compact array per scenario, streamed through Jackson; '<', '>' and '&' are unicode-escaped so the data
+    // can never close the surrounding <script> element
+    private void writeReportData(HtmlWriter html) throws IOException {
+        html.raw("<script type='application/json' id='report-data'>");
+        JsonGenerator gen = mapper.getFactory().createGenerator(html.writer());
+        gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        gen.setCharacterEscapes(HtmlSafeEscapes.INSTANCE);
+        gen.writeStartObject();
+        gen.writeArrayFieldStart("rows");
+        for (TestSummary s : thisRunSummaries) {
+            HistoryIndex.Entry history = historyIndex == null ? null : historyIndex.get(s.name);
+            gen.writeStartArray();
+            gen.writeString(s.name);
+            gen.writeNumber(statusCode(s.status));
+            gen.writeString(s.lastPassDate == null ? "" : s.lastPassDate);
+            gen.writeString(s.lastFailureReason == null ? "" : s.lastFailureReason);
+            gen.writeNumber(history == null ? 0 : Math.round(history.passRate() * 10));
+            gen.writeString(history == null ? "" : history.trend(HistoryIndex.TREND_RUNS));
+            LatencyHistogram h = latency == null ? null : latency.scenario(s.name);
+            gen.writeNumber(h == null ? -1 : h.percentile(50));
+            gen.writeNumber(h == null ? -1 : h.percentile(95));
+            gen.writeNumber(h == null ? -1 : h.percentile(99));
+            // duration / baseline in thousandths (sort key), then both durations in microseconds
+            gen.writeNumber(s.baselineMs > 0 ? Math.round(s.durationMs * 1000.0 / s.baselineMs) : -1);
+            gen.writeNumber(s.durationMs * 1000);
+            gen.writeNumber(s.baselineMs < 0 ? -1 : s.baselineMs * 1000);
+            gen.writeNumber(history == null || history.windowRuns < 2 ? -1 : Math.round(history.flipRate() * 1000));
+            // hook time (before + after) and its before part, microseconds
+            gen.writeNumber(s.setupMicros < 0 ? -1 : s.setupMicros + s.teardownMicros);
+            gen.writeNumber(s.setupMicros);
+            gen.writeEndArray();
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+        gen.flush();
+        html.raw("</script>");
     }
 
-    private String extractConciseError(String full) {
-        if (full == null) return null;
-        // pick first non-empty line and truncate to 200 chars
-        String[] lines = full.split("\\r?\\n");
-        for (String l : lines) {
-            l = l.trim();
-            if (!l.isEmpty()) {
-                return l.length() > 200 ? l.substring(0, 200) + "..." : l;
-            }
+    // row status codes used by ReportAssets
+    private static int statusCode(String status) {
+        switch (status) {
+            case "PASSED": return 0;
+            case "FLAKY": return 1;
+            case "SLOW": return 3;
+            default: return 2;
         }
-        return full.length() > 200 ? full.substring(0, 200) + "..." : full;
     }
 
-    private TestStats readStatsForKey(ObjectNode testsNode, String key) {
-        TestStats stats = new TestStats();
-        if (testsNode == null || !testsNode.has(key)) return stats;
-        JsonNode history = testsNode.get(key);
-        if (!history.isArray()) return stats;
-        for (JsonNode e : history) {
-            String status = e.path("status").asText("");
-            if ("SUCCESSFUL".equals(status)) {
-                stats.passCount++;
-                stats.lastPassedDate = e.path("timestamp").asText(null);
-            } else {
-                stats.failCount++;
+    // This run's failures grouped by normalized signature, largest first (see FailureClusters)
+    private void writeFailureClusters(HtmlWriter html) throws IOException {
+        if (failureClusters == null || failureClusters.failures() == 0) return;
+        List<FailureClusters.Cluster> clusters = failureClusters.clusters();
+        html.raw("<h2>Failure Clusters</h2><p>").num(failureClusters.failures()).raw(" failures in ")
+            .num(clusters.size()).raw(" clusters (").num(failureClusters.signatures()).raw(" distinct signatures)");
+        if (clusters.size() > FAILURE_CLUSTER_ROWS) html.raw(", largest ").num(FAILURE_CLUSTER_ROWS).raw(" shown");
+        html.raw("</p><table class='rp-clusters'><tr><th>Failures</th><th>Signature</th><th>Example</th><th>Scenarios</th></tr>");
+        for (FailureClusters.Cluster c : clusters.subList(0, Math.min(FAILURE_CLUSTER_ROWS, clusters.size()))) {
+            html.raw("<tr><td>").num(c.count);
+            if (c.flaky > 0) html.raw(" (").num(c.flaky).raw(" flaky)");
+            if (c.variants > 1) html.raw("<br>").num(c.variants).raw(" variants");
+            html.raw("</td><td title='").text(c.signature).raw("'>").text(c.label)
+                .raw("</td><td>").text(c.example == null ? "-" : c.example)
+                .raw("</td><td><details><summary>").num(c.scenarios.size()).raw(" scenarios</summary>");
+            for (String s : c.scenarios.subList(0, Math.min(CLUSTER_SCENARIOS_LISTED, c.scenarios.size()))) {
+                html.text(s).raw("<br>");
+            }
+            if (c.scenarios.size() > CLUSTER_SCENARIOS_LISTED) {
+                html.raw("+").num(c.scenarios.size() - CLUSTER_SCENARIOS_LISTED).raw(" more");
             }
+            html.raw("</details></td></tr>");
         }
-        return stats;
+        html.raw("</table>");
     }
 
-    private void generateHtmlReport() throws IOException {
-        StringBuilder html = new StringBuilder();
-        html.append("<!DOCTYPE html><html lang='en'><head><meta charset='UTF-8'>")
-            .append("<title>Test Report</title><style>")
-            .append("body{font-family:Arial;margin:20px;}table{border-collapse:collapse;width:100%;}")
-            .append("th,td{border:1px solid #ccc;padding:8px;text-align:left;}th{background:#333;color:#fff;}")
-            .append(".PASSED{background:#d4edda}.FLAKY{background:#fff3cd}.FAILED{background:#f8d7da}")
-            .append("</style></head><body>");
-        html.append("<h1>Test Execution Report</h1>");
-        html.append(String.format("<p><b>Total:</b> %d | <b>Passed:</b> %d | <b>Flaky:</b> %d | <b>Failed:</b> %d</p>",
-                total, passed, flaky, failed));
-        html.append("<table><tr><th>Test</th><th>Status</th><th>Last Passed</th><th>Reason</th></tr>");
-        for (TestSummary s : thisRunSummaries) {
-            html.append("<tr class='").append(s.status).append("'>")
-                .append("<td>").append(escapeHtml(s.name)).append("</td>")
-                .append("<td>").append(s.status).append("</td>")
-                .append("<td>").append(s.lastPassDate == null ? "-" : s.lastPassDate).append("</td>")
-                .append("<td>").append(escapeHtml(s.lastFailureReason == null ? "-" : s.lastFailureReason)).append("</td>")
-                .append("</tr>");
+    // Hook (fixture) time: this run's share of scenario time, then hook methods by total time across all runs
+    private void writeSetupOverhead(HtmlWriter html) throws IOException {
+        long hookNanos = runSetupNanos + runTeardownNanos;
+        if (hookNanos == 0 && (latency == null || latency.hooks.isEmpty())) return;
+        html.raw("<h2>Setup Overhead</h2><p>Hooks took ").latency(hookNanos / 1000)
+            .raw(" this run (before ").latency(runSetupNanos / 1000).raw(", after ").latency(runTeardownNanos / 1000)
+            .raw("), ").percent(100.0 * hookNanos / Math.max(1, hookNanos + runStepNanos))
+            .raw(" of scenario time; steps took ").latency(runStepNanos / 1000).raw("</p>");
+        if (latency == null || latency.hooks.isEmpty()) return;
+        List<Map.Entry<String, LatencyHistogram>> top = latency.hookHotspots(HOOK_ROWS);
+        long totalMicros = Math.max(1, latency.hookMicros());
+        html.raw("<table class='rp-steps'><tr><th>Hook</th><th>Calls</th><th>Total</th><th>Share</th>")
+            .raw("<th>Mean</th><th>p50</th><th>p95</th><th>Max</th></tr>");
+        for (Map.Entry<String, LatencyHistogram> e : top) {
+            LatencyHistogram h = e.getValue();
+            html.raw("<tr><td title='").text(e.getKey()).raw("'>").text(e.getKey())
+                .raw("</td><td>").num(h.count)
+                .raw("</td><td>").latency(h.sum)
+                .raw("</td><td>").percent(100.0 * h.sum / totalMicros)
+                .raw("</td><td>").latency(h.count == 0 ? -1 : h.sum / h.count)
+                .raw("</td><td>").latency(h.percentile(50))
+                .raw("</td><td>").latency(h.percentile(95))
+                .raw("</td><td>").latency(h.max).raw("</td></tr>");
         }
-        html.append("</table></body></html>");
+        html.raw("</table>");
+    }
 
-        if (!reportFile.getParentFile().exists()) reportFile.getParentFile().mkdirs();
-        Files.writeString(Path.of(reportFile.toURI()), html.toString());
+    // Step definitions by total time across all runs: where the suite's time goes, straight HTML (small, fixed size)
+    private void writeGlueHotspots(HtmlWriter html) throws IOException {
+        if (latency == null || latency.glue.isEmpty()) return;
+        List<Map.Entry<String, LatencyHistogram>> hotspots = latency.glueHotspots(GLUE_HOTSPOT_ROWS);
+        long totalMicros = Math.max(1, latency.glueMicros());
+        html.raw("<h2>Slowest Glue Code</h2><p>Top ").num(hotspots.size()).raw(" of ").num(latency.glue.size())
+            .raw(" step definitions by total time, across all recorded runs; share is of all step time</p>");
+        html.raw("<table class='rp-steps'><tr><th>Step definition</th><th>Calls</th><th>Total</th><th>Share</th>")
+            .raw("<th>Mean</th><th>p50</th><th>p95</th><th>p99</th><th>Max</th></tr>");
+        for (Map.Entry<String, LatencyHistogram> e : hotspots) {
+            LatencyHistogram h = e.getValue();
+            html.raw("<tr><td title='").text(e.getKey()).raw("'>").text(e.getKey())
+                .raw("</td><td>").num(h.count)
+                .raw("</td><td>").latency(h.sum)
+                .raw("</td><td>").percent(100.0 * h.sum / totalMicros)
+                .raw("</td><td>").latency(h.count == 0 ? -1 : h.sum / h.count)
+                .raw("</td><td>").latency(h.percentile(50))
+                .raw("</td><td>").latency(h.percentile(95))
+                .raw("</td><td>").latency(h.percentile(99))
+                .raw("</td><td>").latency(h.max).raw("</td></tr>");
+        }
+        html.raw("</table>");
     }
 
-    private String escapeHtml(String s) {
-        return s.replace("&","&amp;").replace("<","&lt;").replace(">","&gt;");
+    // Slowest steps across all runs by p99, straight HTML (small, fixed size)
+    private void writeStepLatency(HtmlWriter html) throws IOException {
+        if (latency == null || latency.steps.isEmpty()) return;
+        List<Map.Entry<String, LatencyHistogram>> slowest = latency.slowestSteps(STEP_LATENCY_ROWS);
+        html.raw("<h2>Step Latency</h2><p>Slowest ").num(slowest.size()).raw(" of ").num(latency.steps.size())
+            .raw(" steps by p99, across all recorded runs</p>");
+        html.raw("<table class='rp-steps'><tr><th>Step</th><th>Runs</th><th>p50</th><th>p95</th><th>p99</th><th>Max</th></tr>");
+        for (Map.Entry<String, LatencyHistogram> e : slowest) {
+            LatencyHistogram h = e.getValue();
+            html.raw("<tr><td title='").text(e.getKey()).raw("'>").text(e.getKey())
+                .raw("</td><td>").num(h.count)
+                .raw("</td><td>").latency(h.percentile(50))
+                .raw("</td><td>").latency(h.percentile(95))
+                .raw("</td><td>").latency(h.percentile(99))
+                .raw("</td><td>").latency(h.max).raw("</td></tr>");
+        }
+        html.raw("</table>");
     }
 
     // ---------------- helper classes ----------------
-    private static class ScenarioResult {
+    private static class HtmlSafeEscapes extends CharacterEscapes {
+        private static final long serialVersionUID = 1L;
+        static final HtmlSafeEscapes INSTANCE = new HtmlSafeEscapes();
+        private final int[] escapes = CharacterEscapes.standardAsciiEscapesForJSON();
+
+        HtmlSafeEscapes() {
+            escapes['<'] = CharacterEscapes.ESCAPE_STANDARD;
+            escapes['>'] = CharacterEscapes.ESCAPE_STANDARD;
+            escapes['&'] = CharacterEscapes.ESCAPE_STANDARD;
+        }
+
+        @Override
+        public int[] getEscapeCodesForAscii() {
+            return escapes;
+        }
+
+        @Override
+        public SerializableString getEscapeSequence(int ch) {
+            return null;
+        }
+    }
+
+    static class ScenarioResult {
         final Status status;
         final String errorMessage;
+        // error_message with stack trace (capped at FailureClusters.MAX_DETAIL_CHARS), for failure clustering
+        final String errorDetail;
         final long durationMs;
-        ScenarioResult(Status status, String errorMessage, long durationMs) {
+        // Cucumber JSON step durations are nanoseconds; durationMs is derived from their sum
+        final long durationNanos;
+        final List<StepTiming> steps;
+        // before / after hook time, not part of durationNanos; hooks are StepTimings named "before" / "after"
+        final long setupNanos;
+        final long teardownNanos;
+        final List<StepTiming> hooks;
+        // tags of the enclosing feature (e.g. shard affinity, see ShardPlanner); set when the parser closes the feature
+        List<String> featureTags = Collections.emptyList();
+        ScenarioResult(Status status, String errorMessage, long durationNanos, List<StepTiming> steps) {
+            this(status, errorMessage, errorMessage, durationNanos, steps);
+        }
+        ScenarioResult(Status status, String errorMessage, String errorDetail, long durationNanos, List<StepTiming> steps) {
+            this(status, errorMessage, errorDetail, durationNanos, steps, 0, 0, Collections.emptyList());
+        }
+        ScenarioResult(Status status, String errorMessage, String errorDetail, long durationNanos, List<StepTiming> steps,
+                       long setupNanos, long teardownNanos, List<StepTiming> hooks) {
             this.status = status;
             this.errorMessage = errorMessage;
-            this.durationMs = durationMs;
+            this.errorDetail = errorDetail;
+            this.durationNanos = durationNanos;
+            this.durationMs = durationNanos / 1_000_000;
+            this.steps = steps;
+            this.setupNanos = setupNanos;
+            this.teardownNanos = teardownNanos;
+            this.hooks = hooks;
+        }
+    }
+
+    static class StepTiming {
+        final String step;
+        final long nanos;
+        // glue method from match.location, e.g. steps.EventHubSteps.waitForEvent(java.lang.String); null if unknown
+        final String location;
+        StepTiming(String step, long nanos) {
+            this(step, nanos, null);
+        }
+        StepTiming(String step, long nanos, String location) {
+            this.step = step;
+            this.nanos = nanos;
+            this.location = location;
         }
     }
 
-    private enum Status { PASSED, FAILED }
+    enum Status { PASSED, FAILED }
 
     private static class TestStats {
         int passCount = 0;
         int failCount = 0;
+        int flakyCount = 0;
         String lastPassedDate = null;
     }
 
@@ -275,8 +561,15 @@ public class FlakyTestAnalyzer implements TestExecutionListener {
         final String lastFailureReason;
         final String lastPassDate;
         final String status;
-        TestSummary(String name, String lastFailureReason, String lastPassDate, String status) {
+        final long durationMs;
+        final long baselineMs;
+        final long setupMicros;
+        final long teardownMicros;
+        TestSummary(String name, String lastFailureReason, String lastPassDate, String status, long durationMs, long baselineMs,
+                    long setupMicros, long teardownMicros) {
             this.name = name; this.lastFailureReason = lastFailureReason; this.lastPassDate = lastPassDate; this.status = status;
+            this.durationMs = durationMs; this.baselineMs = baselineMs;
+            this.setupMicros = setupMicros; this.teardownMicros = teardownMicros;
         }
     }
 }
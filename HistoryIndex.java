@@ -0,0 +1,237 @@
+package utils;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Per-test aggregate index kept next to the history store (test-history/history-index.json).
+ * - Holds counts, last-passed timestamp, last status and running duration stats per test
+ * - Updated incrementally with each run's entries, so stats lookups are O(1) instead of a history scan
+ * - Remembers the log position it covers; a lagging index replays only the missing tail,
+ *   a missing or unreadable one is rebuilt from the raw log
+ * - Aggregate records left by HistoryRetention add to the counts but never to last status or trend
+ * - Passed runs also feed an exponentially weighted duration baseline (BASELINE_ALPHA), see DurationRegression
+ * - Runs that recorded hooks feed the same kind of average of their before + after hook time, see ShardPlanner
+ * - The newest raw run's feature tags are kept for ShardPlanner's affinity groups
+ * - The last WINDOW_RUNS raw outcomes are kept as bit words (bit 0 = newest run), so trend, flip rate and
+ *   "failed N of last M" are shifts and popcounts instead of history scans
+ */
+final class HistoryIndex {
+
+    // 6: durations converted to milliseconds on replay (see HistoryStore.durationMs); 7: hook time average
+    private static final int VERSION = 7;
+    static final int TREND_RUNS = 5;
+    static final int WINDOW_RUNS = Long.SIZE;
+    // weight of the newest passed run in the duration baseline; ~20 runs dominate it
+    static final double BASELINE_ALPHA = 0.1;
+
+    public int version = VERSION;
+    public String backend;
+    public HistoryStore.Position position = new HistoryStore.Position();
+    public Map<String, Entry> tests = new HashMap<>();
+
+    /** Loads the index for the given log, catching up or rebuilding from the log when needed. */
+    static HistoryIndex load(ObjectMapper mapper, File indexFile, HistoryStore log) throws IOException {
+        HistoryIndex index = null;
+        if (indexFile.exists()) {
+            try {
+                index = mapper.readerFor(HistoryIndex.class)
+                        .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                        .readValue(indexFile);
+                if (index.version != VERSION || index.position == null || index.tests == null
+                        || !log.name().equals(index.backend) || !log.contains(index.position)) {
+                    index = null;
+                }
+            } catch (IOException ex) {
+                System.out.println("⚠️ HistoryIndex: " + indexFile.getName() + " unreadable, rebuilding from history log");
+                index = null;
+            }
+        }
+
+        HistoryStore.Position end = log.end();
+        if (index == null) {
+            index = new HistoryIndex();
+            index.backend = log.name();
+            log.replay(mapper, null, index::add);
+            index.position = end;
+        } else if (!index.position.equals(end)) {
+            log.replay(mapper, index.position, index::add);
+            index.position = end;
+        }
+        return index;
+    }
+
+    /** Writes the index via temp file + rename so a crash never leaves a half-written index. */
+    void save(ObjectMapper mapper, File indexFile) throws IOException {
+        File dir = indexFile.getAbsoluteFile().getParentFile();
+        if (!dir.exists()) dir.mkdirs();
+        File tmp = new File(dir, indexFile.getName() + "." + ProcessHandle.current().pid() + ".tmp");
+        mapper.writeValue(tmp, this);
+        Files.move(tmp.toPath(), indexFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    Entry get(String key) {
+        return tests.get(key);
+    }
+
+    /** Folds one history entry (legacy entry shape) into the aggregates for key. */
+    void add(String key, JsonNode e) {
+        Entry a = tests.computeIfAbsent(key, k -> new Entry());
+        if (HistoryRetention.isAggregate(e)) {
+            a.addAggregate(e);
+            return;
+        }
+        String status = e.path("status").asText("");
+        String timestamp = e.path("timestamp").asText(null);
+        if ("SUCCESSFUL".equals(status)) {
+            a.passCount++;
+            a.lastPassedDate = timestamp;
+        } else if ("FLAKY".equals(status)) {
+            a.flakyCount++;
+        } else {
+            a.failCount++;
+        }
+        a.lastStatus = status;
+        a.lastTimestamp = timestamp;
+        a.featureTags = e.path("featureTags").asText(null);
+        a.addOutcome("SUCCESSFUL".equals(status), "FLAKY".equals(status));
+        if (e.has("durationMs")) {
+            long d = HistoryStore.durationMs(e);
+            a.addDuration(d);
+            if ("SUCCESSFUL".equals(status)) a.addBaseline(d);
+        }
+        if (e.has("setupMs") || e.has("teardownMs")) {
+            a.addHooks(e.path("setupMs").asLong(0) + e.path("teardownMs").asLong(0));
+        }
+    }
+
+    // ---------------- helper classes ----------------
+    static class Entry {
+        public int passCount;
+        public int failCount;
+        public int flakyCount;
+        public String lastPassedDate;
+        public String lastStatus;
+        public String lastTimestamp;
+        // tags of the test's feature in the newest raw run, space separated; null when it had none
+        public String featureTags;
+        // Welford running mean / variance over all recorded durations
+        public long durationCount;
+        public double durationMean;
+        public double durationM2;
+        public long durationMin = Long.MAX_VALUE;
+        public long durationMax = Long.MIN_VALUE;
+        // EWMA mean / variance of passed-run durations (raw runs only)
+        public long baselineRuns;
+        public double baselineMean;
+        public double baselineVar;
+        // EWMA of before + after hook time per run, ms (raw runs that recorded hooks only)
+        public long hookRuns;
+        public double hookMean;
+        // last windowRuns (<= WINDOW_RUNS) raw runs, bit 0 = newest: pass bit, and flaky bit for failures
+        public long passBits;
+        public long flakyBits;
+        public int windowRuns;
+
+        void addOutcome(boolean passed, boolean flaky) {
+            passBits = passBits << 1 | (passed ? 1 : 0);
+            flakyBits = flakyBits << 1 | (flaky ? 1 : 0);
+            if (windowRuns < WINDOW_RUNS) windowRuns++;
+        }
+
+        /** Failed (or flaky) runs among the newest min(runs, windowRuns). */
+        int failedInLast(int runs) {
+            int n = Math.min(runs, windowRuns);
+            return n - Long.bitCount(passBits & mask(n));
+        }
+
+        boolean passedInLast(int runs) {
+            return (passBits & mask(Math.min(runs, windowRuns))) != 0;
+        }
+
+        /** Pass/fail changes between consecutive runs in the window. */
+        int flips() {
+            return windowRuns < 2 ? 0 : Long.bitCount((passBits ^ passBits >>> 1) & mask(windowRuns - 1));
+        }
+
+        /** flips / possible flips: 0 for a stable test, 1 when every run differs from the one before; -1 below 2 runs. */
+        double flipRate() {
+            return windowRuns < 2 ? -1 : flips() / (double) (windowRuns - 1);
+        }
+
+        /** Newest min(limit, windowRuns) runs, oldest first: P passed, K flaky, F failed. */
+        String trend(int limit) {
+            char[] trend = new char[Math.min(limit, windowRuns)];
+            for (int j = 0, bit = trend.length - 1; bit >= 0; j++, bit--) {
+                trend[j] = (passBits >>> bit & 1) != 0 ? 'P' : (flakyBits >>> bit & 1) != 0 ? 'K' : 'F';
+            }
+            return new String(trend);
+        }
+
+        private static long mask(int runs) {
+            return runs >= Long.SIZE ? -1L : (1L << runs) - 1;
+        }
+
+        void addDuration(long d) {
+            durationCount++;
+            double delta = d - durationMean;
+            durationMean += delta / durationCount;
+            durationM2 += delta * (d - durationMean);
+            durationMin = Math.min(durationMin, d);
+            durationMax = Math.max(durationMax, d);
+        }
+
+        void addBaseline(long d) {
+            if (baselineRuns++ == 0) {
+                baselineMean = d;
+                return;
+            }
+            double diff = d - baselineMean;
+            double incr = BASELINE_ALPHA * diff;
+            baselineMean += incr;
+            baselineVar = (1 - BASELINE_ALPHA) * (baselineVar + diff * incr);
+        }
+
+        void addHooks(long ms) {
+            hookMean = hookRuns++ == 0 ? ms : hookMean + BASELINE_ALPHA * (ms - hookMean);
+        }
+
+        void addAggregate(JsonNode agg) {
+            passCount += agg.path("passCount").asInt(0);
+            failCount += agg.path("failCount").asInt(0);
+            flakyCount += agg.path("flakyCount").asInt(0);
+            String lp = agg.path("lastPassedDate").asText(null);
+            if (lp != null && (lastPassedDate == null || lp.compareTo(lastPassedDate) > 0)) lastPassedDate = lp;
+
+            long n = agg.path("durationCount").asLong(0);
+            if (n == 0) return;
+            double scale = HistoryStore.durationScale(agg);
+            long total = durationCount + n;
+            double mean = agg.path("durationMean").asDouble(0) * scale;
+            double delta = mean - durationMean;
+            durationMean += delta * n / total;
+            durationM2 += agg.path("durationM2").asDouble(0) * scale * scale + delta * delta * durationCount * n / total;
+            durationCount = total;
+            durationMin = Math.min(durationMin, Math.round(agg.path("durationMin").asLong(Long.MAX_VALUE) * scale));
+            durationMax = Math.max(durationMax, Math.round(agg.path("durationMax").asLong(Long.MIN_VALUE) * scale));
+        }
+
+        /** Share of runs that passed; a FLAKY run is a failed run of a test that has passed before. */
+        double passRate() {
+            int runs = passCount + failCount + flakyCount;
+            return runs == 0 ? 0 : passCount * 100.0 / runs;
+        }
+
+        double durationStdDev() {
+            return durationCount > 1 ? Math.sqrt(durationM2 / (durationCount - 1)) : 0;
+        }
+    }
+}
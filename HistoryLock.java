@@ -0,0 +1,86 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock over test-history/ shared by every forked JVM (forkCount > 1).
+ * - Cross-process: FileChannel.lock() on test-history/.history.lock
+ * - In-process: a static ReentrantLock, since a JVM may not hold two FileLocks on the same file
+ *
+ * Holders re-read the index tail under the lock (merge-on-write) and append. Parsing, saving the index snapshot,
+ * latency histograms and report rendering happen outside the lock, so 16 forks finishing together only queue
+ * for the index catch-up + O(run) append.
+ */
+final class HistoryLock implements AutoCloseable {
+
+    private static final ReentrantLock IN_PROCESS = new ReentrantLock();
+
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private HistoryLock(FileChannel channel, FileLock lock) {
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /** Blocks until the lock is held. */
+    static HistoryLock acquire(File lockFile) throws IOException {
+        long start = System.nanoTime();
+        IN_PROCESS.lock();
+        FileChannel ch = null;
+        try {
+            ch = open(lockFile);
+            FileLock lock = ch.lock();
+            long waitedMs = (System.nanoTime() - start) / 1_000_000;
+            if (waitedMs > 1000) {
+                System.out.println("ℹ️ HistoryLock: waited " + waitedMs + " ms for " + lockFile.getPath());
+            }
+            return new HistoryLock(ch, lock);
+        } catch (IOException | RuntimeException ex) {
+            if (ch != null) ch.close();
+            IN_PROCESS.unlock();
+            throw ex;
+        }
+    }
+
+    /** Returns null instead of waiting when another process or thread holds the lock. */
+    static HistoryLock tryAcquire(File lockFile) throws IOException {
+        if (!IN_PROCESS.tryLock()) return null;
+        FileChannel ch = null;
+        try {
+            ch = open(lockFile);
+            FileLock lock = ch.tryLock();
+            if (lock == null) {
+                ch.close();
+                IN_PROCESS.unlock();
+                return null;
+            }
+            return new HistoryLock(ch, lock);
+        } catch (IOException | RuntimeException ex) {
+            if (ch != null) ch.close();
+            IN_PROCESS.unlock();
+            throw ex;
+        }
+    }
+
+    private static FileChannel open(File lockFile) throws IOException {
+        File dir = lockFile.getAbsoluteFile().getParentFile();
+        if (!dir.exists()) dir.mkdirs();
+        return FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            lock.release();
+            channel.close();
+        } finally {
+            IN_PROCESS.unlock();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Append-only, segmented run history.
+ * - One compact JSON line per scenario per run, e.g. {"test":"classpath:a.feature:12","timestamp":...,"status":"FAILED","reasonId":3,...}
+ * - Reasons are stored once in the ReasonDictionary (reasons.dict) and referenced by id; replay puts them back as
+ *   "reason", so callers see the legacy entry shape. Records written before the dictionary keep their inline reason
+ * - Lines go to test-history/history-log/segment-NNNNNN.jsonl; a new segment starts once the current one passes the size limit
+ * - A run's records are written with a single append, so a run costs O(run) I/O regardless of history size
+ * - loadView() rebuilds the same "tests" object that test-history.json used to hold
+ *
+ * A torn last line (JVM killed mid-write) is ignored on load and fenced off with a newline on the next append.
+ */
+final class HistoryLog implements HistoryStore {
+
+    static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".jsonl";
+
+    private final File dir;
+    private final long segmentMaxBytes;
+    private ReasonDictionary reasons;
+
+    HistoryLog(File dir, long segmentMaxBytes) {
+        this.dir = dir;
+        this.segmentMaxBytes = segmentMaxBytes;
+    }
+
+    File getDir() {
+        return dir;
+    }
+
+    @Override
+    public String name() {
+        return "log";
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return segments().isEmpty();
+    }
+
+    @Override
+    public void appendRecords(ObjectMapper mapper, List<String> keys, List<ObjectNode> entries) throws IOException {
+        if (entries.isEmpty()) return;
+        ReasonDictionary dict = reasons(mapper);
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(entries.size() * 120);
+        for (int i = 0; i < entries.size(); i++) {
+            ObjectNode record = mapper.createObjectNode();
+            record.put("test", keys.get(i));
+            Iterator<Map.Entry<String, JsonNode>> fields = entries.get(i).fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> f = fields.next();
+                if ("reason".equals(f.getKey()) && f.getValue().isTextual()) {
+                    record.put("reasonId", dict.idFor(f.getValue().textValue()));
+                } else {
+                    record.set(f.getKey(), f.getValue());
+                }
+            }
+            buf.write(mapper.writeValueAsBytes(record));
+            buf.write('\n');
+        }
+        // dictionary first: every id a record points at must already be on disk
+        dict.flush();
+        appendBytes(buf.toByteArray());
+    }
+
+    /** Rebuilds key -> [entries...] from all segments, oldest first. */
+    ObjectNode loadView(ObjectMapper mapper) throws IOException {
+        ObjectNode tests = mapper.createObjectNode();
+        replay(mapper, null, (key, entry) -> {
+            JsonNode existing = tests.get(key);
+            ArrayNode history = existing instanceof ArrayNode ? (ArrayNode) existing : tests.putArray(key);
+            history.add(entry);
+        });
+        return tests;
+    }
+
+    @Override
+    public void replay(ObjectMapper mapper, Position from, RecordHandler handler) throws IOException {
+        ReasonDictionary dict = reasons(mapper);
+        for (Path segment : segments()) {
+            int index = segmentIndex(segment);
+            if (from != null && index < from.segment) continue;
+            long offset = from != null && index == from.segment ? from.offset : 0;
+            try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ)) {
+                if (offset > ch.size()) continue;
+                ch.position(offset);
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(Channels.newInputStream(ch), StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    ObjectNode record = parseRecord(mapper, line);
+                    if (record == null) continue;
+                    String key = record.remove("test").asText();
+                    JsonNode reasonId = record.remove("reasonId");
+                    if (reasonId != null) {
+                        JsonNode reason = dict.node(reasonId.asInt(-1));
+                        if (reason == null) {
+                            // appended by another process after this instance read the dictionary
+                            reasons = null;
+                            dict = reasons(mapper);
+                            reason = dict.node(reasonId.asInt(-1));
+                        }
+                        record.set("reason", reason != null ? reason : TextNode.valueOf("Unknown reason #" + reasonId.asText()));
+                    }
+                    handler.accept(key, record);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Position end() throws IOException {
+        List<Path> segments = segments();
+        if (segments.isEmpty()) return new Position(0, 0);
+        Path last = segments.get(segments.size() - 1);
+        return new Position(segmentIndex(last), Files.size(last));
+    }
+
+    // segment present and long enough
+    @Override
+    public boolean contains(Position position) {
+        if (position.segment == 0 && position.offset == 0) return true;
+        File f = segmentPath(position.segment).toFile();
+        return f.exists() && f.length() >= position.offset;
+    }
+
+    // loaded once per instance; ids only ever grow, so a dictionary read before a replay covers every record in it
+    private ReasonDictionary reasons(ObjectMapper mapper) {
+        if (reasons == null) reasons = ReasonDictionary.load(mapper, new File(dir, ReasonDictionary.FILE_NAME));
+        return reasons;
+    }
+
+    private ObjectNode parseRecord(ObjectMapper mapper, String line) {
+        if (line.isEmpty()) return null;
+        try {
+            JsonNode node = mapper.readTree(line);
+            if (node instanceof ObjectNode && node.has("test")) return (ObjectNode) node;
+        } catch (IOException ex) {
+            // torn write from a killed JVM - skip the line
+        }
+        System.out.println("⚠️ HistoryLog: skipping unreadable record in " + dir.getPath());
+        return null;
+    }
+
+    private void appendBytes(byte[] bytes) throws IOException {
+        if (bytes.length == 0) return;
+        if (!dir.exists()) dir.mkdirs();
+
+        Path segment = currentSegment(bytes.length);
+        try (FileChannel ch = FileChannel.open(segment,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer out;
+            if (ch.size() > 0 && !endsWithNewline(segment, ch.size())) {
+                out = ByteBuffer.allocate(bytes.length + 1);
+                out.put((byte) '\n').put(bytes).flip();
+            } else {
+                out = ByteBuffer.wrap(bytes);
+            }
+            while (out.hasRemaining()) ch.write(out);
+            ch.force(false);
+        }
+    }
+
+    private static boolean endsWithNewline(Path segment, long size) throws IOException {
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            ch.read(last, size - 1);
+            return last.get(0) == '\n';
+        }
+    }
+
+    // Last segment, or a fresh one if the batch would push it past the limit
+    private Path currentSegment(long incoming) throws IOException {
+        List<Path> segments = segments();
+        if (segments.isEmpty()) return segmentPath(1);
+        Path last = segments.get(segments.size() - 1);
+        long size = Files.size(last);
+        if (size > 0 && size + incoming > segmentMaxBytes) {
+            return segmentPath(segmentIndex(last) + 1);
+        }
+        return last;
+    }
+
+    List<Path> segments() {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) return Collections.emptyList();
+        List<Path> list = new ArrayList<>();
+        for (File f : files) list.add(f.toPath());
+        list.sort(Comparator.comparingInt(HistoryLog::segmentIndex));
+        return list;
+    }
+
+    private Path segmentPath(int index) {
+        return new File(dir, segmentName(index)).toPath();
+    }
+
+    static String segmentName(int index) {
+        return String.format("%s%06d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX);
+    }
+
+    private static int segmentIndex(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+}
@@ -0,0 +1,446 @@
+package utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * Read-only queries over the run history (status, time range, feature uri, failure reason), answered from
+ * HistoryQueryIndex instead of loading the history into a Jackson tree.
+ * - open() brings the index up to date with the store under the history lock (replaying only new records),
+ *   then every query runs on in-memory columns and postings
+ * - A query walks the smallest matching posting list (test / feature, status, reason) or time range and
+ *   checks the other conditions per row, so its cost follows the matches, not the history size
+ * - Backend as for the analyzer: -Dflaky.history.backend=columnar reads history-columnar, else history-log
+ *
+ *   java -cp ... utils.HistoryQuery tests --status FLAKY --since 14d --min 4
+ *   java -cp ... utils.HistoryQuery reasons --feature classpath:features/checkout --since 2024-03-01
+ *   java -cp ... utils.HistoryQuery duration --test classpath:features/login.feature:12
+ *   java -cp ... utils.HistoryQuery runs --status FAILED --reason timeout --limit 20
+ * Options: --dir (default test-history), --status (comma separated), --since / --until (14d, 12h, 30m or an
+ * ISO date / date-time), --test, --feature (uri prefix), --reason (case-insensitive substring).
+ */
+public final class HistoryQuery {
+
+    private final File historyDir;
+    private final HistoryQueryIndex index;
+    // built once here: ReportServer runs queries on a thread pool, so nothing is filled in lazily
+    private final String[] reasonsLowerCase;
+
+    private HistoryQuery(File historyDir, HistoryQueryIndex index) {
+        this.historyDir = historyDir;
+        this.index = index;
+        this.reasonsLowerCase = new String[index.reasons.size()];
+        for (int i = 0; i < reasonsLowerCase.length; i++) reasonsLowerCase[i] = index.reasons.get(i).toLowerCase(Locale.ROOT);
+    }
+
+    /** Opens the history under historyDir (normally test-history), catching its query index up first. */
+    public static HistoryQuery open(File historyDir) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        File indexFile = new File(historyDir, HistoryQueryIndex.FILE_NAME);
+        HistoryQueryIndex index;
+        HistoryLock lock = HistoryLock.acquire(new File(historyDir, ".history.lock"));
+        try (lock) {
+            index = HistoryQueryIndex.load(mapper, indexFile, HistoryStore.open(historyDir, mapper));
+        }
+        // the O(history) rewrite and the postings stay out of the lock, so forks recording a run do not queue behind them
+        index.publish(indexFile);
+        return new HistoryQuery(historyDir, index);
+    }
+
+    private static boolean isColumnarBackend() {
+        return "columnar".equalsIgnoreCase(System.getProperty("flaky.history.backend", "log"));
+    }
+
+    /**
+     * False once runs were appended (or the log compacted) after this query was opened; reopen to see them.
+     * Only looks at the store's end position, so it is cheap enough to call per request.
+     */
+    public boolean isCurrent() throws IOException {
+        HistoryStore.Position end = isColumnarBackend()
+                ? new HistoryStore.Position(1, ColumnarHistoryStore.readRowCount(new File(historyDir, "history-columnar")))
+                : new HistoryLog(new File(historyDir, "history-log"), HistoryLog.DEFAULT_SEGMENT_BYTES).end();
+        return end.equals(index.position) && (isColumnarBackend() ? "columnar" : "log").equals(index.backend);
+    }
+
+    /** Identifies the indexed history state: equal versions answer every query the same way. */
+    public String version() {
+        return index.backend + ":" + index.position.segment + ":" + index.position.offset;
+    }
+
+    public int size() {
+        return index.rows;
+    }
+
+    /** Matching rows in append (time) order. */
+    int[] rows(Filter filter) {
+        HistoryQueryIndex ix = index;
+
+        // conditions as per-id masks; null = no condition
+        boolean[] tests = null;
+        if (filter.test != null || filter.feature != null) {
+            tests = new boolean[ix.tests.size()];
+            if (filter.test != null) {
+                int id = ix.testId(filter.test);
+                if (id >= 0) tests[id] = true;
+            } else {
+                // a whole feature file means its scenarios ("uri:line"), not every uri sharing the prefix
+                String prefix = filter.feature.endsWith(".feature") ? filter.feature + ":" : filter.feature;
+                for (int i = 0; i < tests.length; i++) tests[i] = ix.tests.get(i).startsWith(prefix);
+            }
+        }
+        boolean[] reasons = null;
+        if (filter.reason != null) {
+            String needle = filter.reason.toLowerCase(Locale.ROOT);
+            reasons = new boolean[reasonsLowerCase.length];
+            for (int i = 0; i < reasons.length; i++) reasons[i] = reasonsLowerCase[i].contains(needle);
+        }
+        boolean[] statuses = null;
+        if (filter.statuses != 0) {
+            statuses = new boolean[3];
+            for (int s = 0; s < 3; s++) statuses[s] = (filter.statuses & (1 << s)) != 0;
+        }
+        int from = 0, to = ix.rows;
+        boolean timeIndexed = ix.timeSorted;
+        if (timeIndexed) {
+            from = filter.since == Long.MIN_VALUE ? 0 : ix.lowerBound(filter.since);
+            to = filter.until == Long.MAX_VALUE ? ix.rows : ix.lowerBound(filter.until);
+        }
+
+        // driver: the smallest candidate set
+        int[] start = null, postings = null;
+        boolean[] driverIds = null;
+        long best = to - from;
+        long n;
+        if (tests != null && (n = size(ix.testStart, tests)) < best) {
+            best = n;
+            start = ix.testStart;
+            postings = ix.testRows;
+            driverIds = tests;
+        }
+        if (statuses != null && (n = size(ix.statusStart, statuses)) < best) {
+            best = n;
+            start = ix.statusStart;
+            postings = ix.statusRows;
+            driverIds = statuses;
+        }
+        if (reasons != null && (n = size(ix.reasonStart, reasons)) < best) {
+            start = ix.reasonStart;
+            postings = ix.reasonRows;
+            driverIds = reasons;
+        }
+
+        int[] candidates;
+        int count;
+        if (postings == null) {
+            count = to - from;
+            candidates = null;
+        } else {
+            candidates = new int[(int) size(start, driverIds)];
+            count = 0;
+            int lists = 0;
+            for (int id = 0; id < driverIds.length; id++) {
+                if (!driverIds[id]) continue;
+                System.arraycopy(postings, start[id], candidates, count, start[id + 1] - start[id]);
+                count += start[id + 1] - start[id];
+                lists++;
+            }
+            if (lists > 1) Arrays.sort(candidates, 0, count);
+        }
+
+        int[] out = new int[Math.min(count, 1024)];
+        int matches = 0;
+        for (int i = 0; i < count; i++) {
+            int row = candidates == null ? from + i : candidates[i];
+            if (tests != null && driverIds != tests && !tests[ix.testCol[row]]) continue;
+            if (statuses != null && driverIds != statuses && !statuses[ix.statusCol[row]]) continue;
+            if (reasons != null && driverIds != reasons && (ix.reasonCol[row] < 0 || !reasons[ix.reasonCol[row]])) continue;
+            if (candidates != null || !timeIndexed) {
+                long t = ix.timeCol[row];
+                if (t < filter.since || t >= filter.until) continue;
+            }
+            if (matches == out.length) out = Arrays.copyOf(out, Math.min(count, out.length * 2));
+            out[matches++] = row;
+        }
+        return Arrays.copyOf(out, matches);
+    }
+
+    private static long size(int[] start, boolean[] ids) {
+        long n = 0;
+        for (int id = 0; id < ids.length; id++) {
+            if (ids[id]) n += start[id + 1] - start[id];
+        }
+        return n;
+    }
+
+    /** Number of matching runs. */
+    public int count(Filter filter) {
+        return rows(filter).length;
+    }
+
+    /** Matching runs per test, most first. */
+    public List<TestCount> countByTest(Filter filter) {
+        int[] counts = new int[index.tests.size()];
+        long[] last = new long[counts.length];
+        for (int row : rows(filter)) {
+            int t = index.testCol[row];
+            counts[t]++;
+            last[t] = index.timeCol[row];
+        }
+        List<TestCount> result = new ArrayList<>();
+        for (int t = 0; t < counts.length; t++) {
+            if (counts[t] > 0) result.add(new TestCount(index.tests.get(t), counts[t], HistoryStore.fromEpochMillis(last[t])));
+        }
+        result.sort((a, b) -> a.runs != b.runs ? Integer.compare(b.runs, a.runs) : a.test.compareTo(b.test));
+        return result;
+    }
+
+    /** Matching runs per failure reason ("Passed" included unless filtered out by status), most first. */
+    public List<ReasonCount> countByReason(Filter filter) {
+        // (reason, test) pairs sorted, so runs and distinct tests per reason are counted in one pass
+        int[] rows = rows(filter);
+        long[] pairs = new long[rows.length];
+        int n = 0;
+        for (int row : rows) {
+            if (index.reasonCol[row] >= 0) pairs[n++] = (long) index.reasonCol[row] << 32 | index.testCol[row];
+        }
+        Arrays.sort(pairs, 0, n);
+        List<ReasonCount> result = new ArrayList<>();
+        for (int i = 0; i < n; ) {
+            int reason = (int) (pairs[i] >>> 32);
+            int runs = 0, tests = 0;
+            for (long previous = -1; i < n && (int) (pairs[i] >>> 32) == reason; i++, runs++) {
+                if (pairs[i] != previous) tests++;
+                previous = pairs[i];
+            }
+            result.add(new ReasonCount(index.reasons.get(reason), runs, tests));
+        }
+        result.sort((a, b) -> a.runs != b.runs ? Integer.compare(b.runs, a.runs) : a.reason.compareTo(b.reason));
+        return result;
+    }
+
+    /** Duration percentiles (nearest rank) over matching runs that recorded a duration. */
+    public DurationStats durations(Filter filter) {
+        int[] rows = rows(filter);
+        int[] d = new int[rows.length];
+        int n = 0;
+        for (int row : rows) {
+            if (index.durationCol[row] >= 0) d[n++] = index.durationCol[row];
+        }
+        Arrays.sort(d, 0, n);
+        return new DurationStats(n, percentile(d, n, 50), percentile(d, n, 90), percentile(d, n, 95),
+                percentile(d, n, 99), n == 0 ? 0 : d[n - 1]);
+    }
+
+    private static long percentile(int[] sorted, int n, int p) {
+        if (n == 0) return 0;
+        return sorted[Math.max(0, (int) Math.ceil(p / 100.0 * n) - 1)];
+    }
+
+    /** The latest matching runs, newest first. */
+    public List<Run> runs(Filter filter, int limit) {
+        return runs(filter, 0, limit);
+    }
+
+    /** One page of the matching runs, newest first: skips the newest offset runs. */
+    public List<Run> runs(Filter filter, int offset, int limit) {
+        int[] rows = rows(filter);
+        List<Run> result = new ArrayList<>();
+        for (int i = rows.length - 1 - offset; i >= 0 && result.size() < limit; i--) {
+            int row = rows[i];
+            result.add(new Run(index.tests.get(index.testCol[row]), HistoryStore.fromEpochMillis(index.timeCol[row]),
+                    HistoryStore.statusName(index.statusCol[row]), index.durationCol[row],
+                    index.reasonCol[row] < 0 ? null : index.reasons.get(index.reasonCol[row])));
+        }
+        return result;
+    }
+
+    // ---------------- CLI ----------------
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: HistoryQuery tests|reasons|duration|runs [--dir test-history] [--status FLAKY,FAILED]"
+                    + " [--since 14d] [--until 2024-03-01T12:00] [--test key] [--feature uriPrefix] [--reason text]"
+                    + " [--min N] [--limit N]");
+            return;
+        }
+        String command = args[0];
+        File dir = new File("test-history");
+        Filter filter = new Filter();
+        int min = 1;
+        int limit = 50;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--dir": dir = new File(value); break;
+                case "--status": filter.status(value.split(",")); break;
+                case "--since": filter.since(parseTime(value)); break;
+                case "--until": filter.until(parseTime(value)); break;
+                case "--test": filter.test(value); break;
+                case "--feature": filter.feature(value); break;
+                case "--reason": filter.reason(value); break;
+                case "--min": min = Integer.parseInt(value); break;
+                case "--limit": limit = Integer.parseInt(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        long openStart = System.nanoTime();
+        HistoryQuery query = open(dir);
+        long queryStart = System.nanoTime();
+        List<String> lines = new ArrayList<>();
+        switch (command) {
+            case "tests":
+                for (TestCount c : query.countByTest(filter)) {
+                    if (c.runs >= min) lines.add(c.runs + "\t" + c.lastRun + "\t" + c.test);
+                }
+                break;
+            case "reasons":
+                for (ReasonCount c : query.countByReason(filter)) {
+                    if (c.runs >= min) lines.add(c.runs + "\t" + c.tests + " tests\t" + c.reason);
+                }
+                break;
+            case "duration":
+                DurationStats d = query.durations(filter);
+                lines.add("runs=" + d.runs + " p50=" + d.p50 + "ms p90=" + d.p90 + "ms p95=" + d.p95 + "ms p99=" + d.p99 + "ms max=" + d.max + "ms");
+                break;
+            case "runs":
+                for (Run r : query.runs(filter, limit)) {
+                    lines.add(r.timestamp + "\t" + r.status + "\t" + (r.durationMs < 0 ? "-" : r.durationMs + "ms")
+                            + "\t" + r.test + "\t" + (r.reason == null ? "" : r.reason));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command " + command);
+        }
+        long queryMs = (System.nanoTime() - queryStart) / 1_000_000;
+        for (String line : lines) System.out.println(line);
+        System.out.println("ℹ️ HistoryQuery: " + lines.size() + " rows, query " + queryMs + " ms (index load "
+                + (queryStart - openStart) / 1_000_000 + " ms, " + query.size() + " runs indexed)");
+    }
+
+    /** 14d / 12h / 30m before now, or an ISO date / date-time, as history epoch millis (local time taken as UTC). */
+    static long parseTime(String value) {
+        char unit = value.charAt(value.length() - 1);
+        if (value.length() > 1 && "dhm".indexOf(unit) >= 0 && Character.isDigit(value.charAt(0))) {
+            long amount = Long.parseLong(value.substring(0, value.length() - 1));
+            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime t = unit == 'd' ? now.minusDays(amount) : unit == 'h' ? now.minusHours(amount) : now.minusMinutes(amount);
+            return t.toInstant(ZoneOffset.UTC).toEpochMilli();
+        }
+        LocalDateTime t = value.contains("T") ? LocalDateTime.parse(value) : LocalDate.parse(value).atStartOfDay();
+        return t.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    // ---------------- helper classes ----------------
+    /** Conditions of a query; unset conditions match everything. */
+    public static final class Filter {
+        int statuses;
+        long since = Long.MIN_VALUE;
+        long until = Long.MAX_VALUE;
+        String test;
+        String feature;
+        String reason;
+
+        /** SUCCESSFUL, FAILED and/or FLAKY. */
+        public Filter status(String... names) {
+            for (String name : names) {
+                String s = name.trim().toUpperCase(Locale.ROOT);
+                if ("PASSED".equals(s)) s = "SUCCESSFUL";
+                if (!s.equals(HistoryStore.statusName(HistoryStore.statusCode(s)))) {
+                    throw new IllegalArgumentException("Unknown status " + name);
+                }
+                statuses |= 1 << HistoryStore.statusCode(s);
+            }
+            return this;
+        }
+
+        /** Runs at or after the instant (history epoch millis, see HistoryStore.toEpochMillis). */
+        public Filter since(long millis) {
+            since = millis;
+            return this;
+        }
+
+        /** Runs strictly before the instant. */
+        public Filter until(long millis) {
+            until = millis;
+            return this;
+        }
+
+        /** One scenario, by history key (uri:line). */
+        public Filter test(String key) {
+            test = key;
+            return this;
+        }
+
+        /** Scenarios whose key starts with the prefix: a feature uri or a directory of them. */
+        public Filter feature(String uriPrefix) {
+            feature = uriPrefix;
+            return this;
+        }
+
+        /** Runs whose reason contains the text, ignoring case. */
+        public Filter reason(String text) {
+            reason = text;
+            return this;
+        }
+    }
+
+    public static final class TestCount {
+        public final String test;
+        public final int runs;
+        public final String lastRun;
+
+        TestCount(String test, int runs, String lastRun) {
+            this.test = test;
+            this.runs = runs;
+            this.lastRun = lastRun;
+        }
+    }
+
+    public static final class ReasonCount {
+        public final String reason;
+        public final int runs;
+        public final int tests;
+
+        ReasonCount(String reason, int runs, int tests) {
+            this.reason = reason;
+            this.runs = runs;
+            this.tests = tests;
+        }
+    }
+
+    public static final class DurationStats {
+        public final int runs;
+        public final long p50, p90, p95, p99, max;
+
+        DurationStats(int runs, long p50, long p90, long p95, long p99, long max) {
+            this.runs = runs;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p95 = p95;
+            this.p99 = p99;
+            this.max = max;
+        }
+    }
+
+    public static final class Run {
+        public final String test;
+        public final String timestamp;
+        public final String status;
+        public final int durationMs;
+        public final String reason;
+
+        Run(String test, String timestamp, String status, int durationMs, String reason) {
+            this.test = test;
+            this.timestamp = timestamp;
+            this.status = status;
+            this.durationMs = durationMs;
+            this.reason = reason;
+        }
+    }
+}
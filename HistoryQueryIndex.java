@@ -0,0 +1,269 @@
+package utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Secondary indexes over the raw runs of the history store, for HistoryQuery (test-history/history-query.idx).
+ * - Columns per run: test id, epoch millis, status, duration ms, reason id (tests and reasons dictionary encoded)
+ * - Kept in step with the store like HistoryIndex: only records past the saved position are replayed, one at a
+ *   time, so the history is never held as a Jackson tree; a missing or stale file is rebuilt the same way
+ * - Catching up is all that needs the history lock; saving the file and building the postings (ascending row
+ *   ids per test, per status and per reason, counting sorts) happen in publish, after the lock is released
+ * - Rows are in append order, which is time order for history written by FlakyTestAnalyzer (timestamps are
+ *   taken under the history lock): a time range is then two binary searches, otherwise a column scan
+ * - HistoryRetention aggregates have no per-run data and are not indexed; compaction renumbers the log, so
+ *   FlakyTestAnalyzer deletes this file after compacting and the next query rebuilds it; a snapshot saved late
+ *   by a slower reader names segments the compacted log never reuses, so it is rebuilt as well
+ *
+ * Binary file: a header (dictionaries, store position) followed by the five columns, written via temp file + rename.
+ */
+final class HistoryQueryIndex {
+
+    static final String FILE_NAME = "history-query.idx";
+    private static final int MAGIC = 0x48514931;
+    // 2: durations converted to milliseconds on replay (see HistoryStore.durationMs)
+    private static final int VERSION = 2;
+
+    String backend;
+    HistoryStore.Position position = new HistoryStore.Position();
+    final List<String> tests = new ArrayList<>();
+    final List<String> reasons = new ArrayList<>();
+    private final Map<String, Integer> testIds = new HashMap<>();
+    private final Map<String, Integer> reasonIds = new HashMap<>();
+
+    int rows;
+    int[] testCol = new int[1024];
+    long[] timeCol = new long[1024];
+    byte[] statusCol = new byte[1024];
+    int[] durationCol = new int[1024];
+    int[] reasonCol = new int[1024];
+
+    // postings, CSR layout: rows of id i are xxxRows[xxxStart[i] .. xxxStart[i + 1])
+    int[] testStart, testRows;
+    int[] statusStart, statusRows;
+    int[] reasonStart, reasonRows;
+    boolean timeSorted;
+    // records were replayed since the file was read, see publish
+    private boolean changed;
+
+    /** Loads the index for the store, catching up or rebuilding from it when needed; call publish before querying. */
+    static HistoryQueryIndex load(ObjectMapper mapper, File file, HistoryStore store) throws IOException {
+        HistoryQueryIndex index = null;
+        if (file.exists()) {
+            try {
+                index = read(file);
+                if (!store.name().equals(index.backend) || !store.contains(index.position)) index = null;
+            } catch (IOException | RuntimeException ex) {
+                System.out.println("⚠️ HistoryQueryIndex: " + file.getName() + " unreadable, rebuilding from history");
+                index = null;
+            }
+        }
+
+        HistoryStore.Position end = store.end();
+        boolean changed = true;
+        if (index == null) {
+            index = new HistoryQueryIndex();
+            index.backend = store.name();
+            store.replay(mapper, null, index::add);
+        } else if (!index.position.equals(end)) {
+            store.replay(mapper, index.position, index::add);
+        } else {
+            changed = false;
+        }
+        index.position = end;
+        index.changed = changed;
+        return index;
+    }
+
+    /**
+     * Saves the index if load replayed anything and builds the postings; needs no lock, as the file is a snapshot
+     * at its position and losing the rename race to another reader's only means more catch-up next time.
+     */
+    void publish(File file) throws IOException {
+        if (changed) save(file);
+        changed = false;
+        buildPostings();
+    }
+
+    int testId(String key) {
+        return testIds.getOrDefault(key, -1);
+    }
+
+    private void add(String key, JsonNode e) {
+        if (HistoryRetention.isAggregate(e)) return;
+        if (rows == testCol.length) grow();
+        testCol[rows] = testIds.computeIfAbsent(key, k -> {
+            tests.add(k);
+            return tests.size() - 1;
+        });
+        timeCol[rows] = HistoryStore.toEpochMillis(e.path("timestamp").asText(null));
+        statusCol[rows] = HistoryStore.statusCode(e.path("status").asText(""));
+        durationCol[rows] = e.has("durationMs") ? (int) Math.min(Integer.MAX_VALUE, HistoryStore.durationMs(e)) : -1;
+        String reason = e.path("reason").asText(null);
+        reasonCol[rows] = reason == null ? -1 : reasonIds.computeIfAbsent(reason, k -> {
+            reasons.add(k);
+            return reasons.size() - 1;
+        });
+        rows++;
+    }
+
+    private void grow() {
+        int n = testCol.length * 2;
+        testCol = Arrays.copyOf(testCol, n);
+        timeCol = Arrays.copyOf(timeCol, n);
+        statusCol = Arrays.copyOf(statusCol, n);
+        durationCol = Arrays.copyOf(durationCol, n);
+        reasonCol = Arrays.copyOf(reasonCol, n);
+    }
+
+    private void buildPostings() {
+        int[][] t = postings(testCol, tests.size());
+        testStart = t[0];
+        testRows = t[1];
+        int[] status = new int[rows];
+        for (int i = 0; i < rows; i++) status[i] = statusCol[i];
+        int[][] s = postings(status, 3);
+        statusStart = s[0];
+        statusRows = s[1];
+        int[][] r = postings(reasonCol, reasons.size());
+        reasonStart = r[0];
+        reasonRows = r[1];
+        timeSorted = true;
+        for (int i = 1; i < rows && timeSorted; i++) timeSorted = timeCol[i - 1] <= timeCol[i];
+    }
+
+    // counting sort of row ids by column value; negative values (no reason) get no posting
+    private int[][] postings(int[] col, int ids) {
+        int[] start = new int[ids + 1];
+        for (int i = 0; i < rows; i++) {
+            if (col[i] >= 0) start[col[i] + 1]++;
+        }
+        for (int i = 0; i < ids; i++) start[i + 1] += start[i];
+        int[] next = Arrays.copyOf(start, ids);
+        int[] out = new int[start[ids]];
+        for (int i = 0; i < rows; i++) {
+            if (col[i] >= 0) out[next[col[i]]++] = i;
+        }
+        return new int[][] {start, out};
+    }
+
+    /** First row with time >= millis (rows must be time sorted). */
+    int lowerBound(long millis) {
+        int lo = 0, hi = rows;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timeCol[mid] < millis) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // ---------------- persistence ----------------
+    private void save(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.exists()) dir.mkdirs();
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream h = new DataOutputStream(header);
+        h.writeInt(MAGIC);
+        h.writeInt(VERSION);
+        writeString(h, backend);
+        h.writeInt(position.segment);
+        h.writeLong(position.offset);
+        h.writeInt(tests.size());
+        for (String s : tests) writeString(h, s);
+        h.writeInt(reasons.size());
+        for (String s : reasons) writeString(h, s);
+        h.writeInt(rows);
+
+        File tmp = new File(dir, file.getName() + "." + ProcessHandle.current().pid() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(ch, ByteBuffer.allocate(4).putInt(header.size()).flip());
+            writeFully(ch, ByteBuffer.wrap(header.toByteArray()));
+            ByteBuffer buf = ByteBuffer.allocate(rows * 8);
+            buf.asIntBuffer().put(testCol, 0, rows);
+            writeFully(ch, buf.limit(rows * 4));
+            buf.clear().asLongBuffer().put(timeCol, 0, rows);
+            writeFully(ch, buf.limit(rows * 8));
+            writeFully(ch, ByteBuffer.wrap(statusCol, 0, rows));
+            buf.clear().asIntBuffer().put(durationCol, 0, rows);
+            writeFully(ch, buf.limit(rows * 4));
+            buf.clear().asIntBuffer().put(reasonCol, 0, rows);
+            writeFully(ch, buf.limit(rows * 4));
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static HistoryQueryIndex read(File file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer in = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            int headerLength = in.getInt();
+            DataInputStream h = new DataInputStream(new ByteArrayInputStream(bytes(in, headerLength)));
+            if (h.readInt() != MAGIC || h.readInt() != VERSION) throw new IOException("not a query index");
+            HistoryQueryIndex index = new HistoryQueryIndex();
+            index.backend = readString(h);
+            index.position = new HistoryStore.Position(h.readInt(), h.readLong());
+            for (int i = h.readInt(); i > 0; i--) {
+                String s = readString(h);
+                index.testIds.put(s, index.tests.size());
+                index.tests.add(s);
+            }
+            for (int i = h.readInt(); i > 0; i--) {
+                String s = readString(h);
+                index.reasonIds.put(s, index.reasons.size());
+                index.reasons.add(s);
+            }
+            int n = h.readInt();
+            int capacity = Math.max(1024, n);
+            index.rows = n;
+            index.testCol = new int[capacity];
+            index.timeCol = new long[capacity];
+            index.statusCol = new byte[capacity];
+            index.durationCol = new int[capacity];
+            index.reasonCol = new int[capacity];
+            in.slice().asIntBuffer().get(index.testCol, 0, n);
+            in.position(in.position() + n * 4);
+            in.slice().asLongBuffer().get(index.timeCol, 0, n);
+            in.position(in.position() + n * 8);
+            in.get(index.statusCol, 0, n);
+            in.slice().asIntBuffer().get(index.durationCol, 0, n);
+            in.position(in.position() + n * 4);
+            in.slice().asIntBuffer().get(index.reasonCol, 0, n);
+            return index;
+        }
+    }
+
+    private static byte[] bytes(ByteBuffer in, int n) {
+        byte[] b = new byte[n];
+        in.get(b);
+        return b;
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) ch.write(buf);
+    }
+
+    // length-prefixed UTF-8 (writeUTF stops at 64 KB)
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,352 @@
+package utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+
+/**
+ * Retention / compaction for the history log.
+ * - Raw entries are kept for the last N runs of a test, or while younger than D days
+ * - Older entries are folded into one aggregate record per test and period (DAY or WEEK):
+ *   pass/fail/flaky counts, last passed date, running duration mean/variance and p50/p95/p99
+ * - Aggregates are written first, then the kept raw entries, into a fresh log that replaces the old one
+ *
+ * Totals per test (and so the Pass % column) are unchanged by compaction; the trend and the status window
+ * (HistoryIndex.WINDOW_RUNS) only use raw entries, so the default keeps a full window.
+ * Compaction is amortized: it only runs once the log has grown by the configured factor since the last one.
+ *
+ * System properties (all optional):
+ * - flaky.history.keepRuns (default 64), flaky.history.keepDays (default 30)
+ * - flaky.history.aggregatePeriod DAY|WEEK (default DAY)
+ * - flaky.history.compaction end|background|off (default end); background runs while the report renders and is
+ *   waited for at most flaky.history.compactionWaitSeconds (default 60)
+ * - flaky.history.compactionGrowth (default 2.0), flaky.history.compactionMinBytes (default 1 MB)
+ */
+final class HistoryRetention {
+
+    static final int MAX_AGGREGATE_SAMPLES = 256;
+    private static final String MARKER = "COMPACTED";
+
+    final int keepRuns;
+    final int keepDays;
+    final String period;
+    final String mode;
+    final double growth;
+    final long minBytes;
+
+    HistoryRetention(int keepRuns, int keepDays, String period, String mode, double growth, long minBytes) {
+        this.keepRuns = keepRuns;
+        this.keepDays = keepDays;
+        this.period = period;
+        this.mode = mode;
+        this.growth = growth;
+        this.minBytes = minBytes;
+    }
+
+    static HistoryRetention fromSystemProperties() {
+        String growth = System.getProperty("flaky.history.compactionGrowth", "2.0");
+        return new HistoryRetention(
+                // never keep fewer raw runs than the trend column shows
+                Math.max(HistoryIndex.TREND_RUNS, Integer.getInteger("flaky.history.keepRuns", HistoryIndex.WINDOW_RUNS)),
+                Integer.getInteger("flaky.history.keepDays", 30),
+                System.getProperty("flaky.history.aggregatePeriod", "DAY").toUpperCase(Locale.ROOT),
+                System.getProperty("flaky.history.compaction", "end").toLowerCase(Locale.ROOT),
+                Double.parseDouble(growth),
+                Long.getLong("flaky.history.compactionMinBytes", 1024L * 1024));
+    }
+
+    /** True if compaction is enabled and the log has grown enough since the last compaction. */
+    boolean isDue(HistoryLog log) throws IOException {
+        if ("off".equals(mode)) return false;
+        long size = totalBytes(log);
+        long last = readMarker(log);
+        return size >= minBytes && size >= last * growth;
+    }
+
+    /**
+     * Rewrites the log with old entries folded into aggregates. Returns the new log end position.
+     * The new log is built next to the old one and swapped in by directory rename.
+     */
+    HistoryStore.Position compact(ObjectMapper mapper, HistoryLog log, long segmentMaxBytes) throws IOException {
+        File dir = log.getDir();
+        File work = new File(dir.getParentFile(), dir.getName() + ".compacting");
+        File workRaw = new File(dir.getParentFile(), dir.getName() + ".compacting-raw");
+        File old = new File(dir.getParentFile(), dir.getName() + ".old");
+        deleteRecursively(work);
+        deleteRecursively(workRaw);
+        deleteRecursively(old);
+
+        // pass 1: raw entry count per test, so we know which entries are among the last N
+        Map<String, int[]> rawCounts = new HashMap<>();
+        log.replay(mapper, null, (key, entry) -> {
+            if (!isAggregate(entry)) rawCounts.computeIfAbsent(key, k -> new int[1])[0]++;
+        });
+
+        // pass 2: stream raw entries to the new log, fold the old ones into per-period buckets
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(keepDays);
+        Map<String, int[]> seen = new HashMap<>();
+        Map<String, Map<String, Aggregate>> buckets = new LinkedHashMap<>();
+        HistoryLog rawOut = new HistoryLog(workRaw, segmentMaxBytes);
+        List<String> batchKeys = new ArrayList<>();
+        List<ObjectNode> batchEntries = new ArrayList<>();
+
+        log.replay(mapper, null, (key, entry) -> {
+            if (isAggregate(entry)) {
+                String p = entry.path("period").asText("");
+                buckets.computeIfAbsent(key, k -> new TreeMap<>())
+                        .computeIfAbsent(p, k -> new Aggregate(p, entry.path("granularity").asText(period)))
+                        .merge(entry);
+                return;
+            }
+            int index = seen.computeIfAbsent(key, k -> new int[1])[0]++;
+            boolean inLastRuns = index >= rawCounts.get(key)[0] - keepRuns;
+            LocalDateTime ts = parseTimestamp(entry.path("timestamp").asText(null));
+            if (inLastRuns || ts == null || ts.isAfter(cutoff)) {
+                batchKeys.add(key);
+                batchEntries.add(entry);
+                if (batchKeys.size() >= 4096) {
+                    rawOut.appendRecords(mapper, batchKeys, batchEntries);
+                    batchKeys.clear();
+                    batchEntries.clear();
+                }
+            } else {
+                String p = periodKey(ts);
+                buckets.computeIfAbsent(key, k -> new TreeMap<>())
+                        .computeIfAbsent(p, k -> new Aggregate(p, period))
+                        .add(entry);
+            }
+        });
+        rawOut.appendRecords(mapper, batchKeys, batchEntries);
+
+        // aggregates go to the first segment so they replay before any raw entry; raw segments follow. Numbering
+        // continues after the old log's last segment, so no position from before compaction names a segment of
+        // the new log: an index saved at an old position is rebuilt instead of caught up from the wrong offset
+        int first = log.end().segment + 1;
+        List<String> aggKeys = new ArrayList<>();
+        List<ObjectNode> aggEntries = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Aggregate>> t : buckets.entrySet()) {
+            for (Aggregate a : t.getValue().values()) {
+                aggKeys.add(t.getKey());
+                aggEntries.add(a.toNode(mapper));
+            }
+        }
+        HistoryLog aggOut = new HistoryLog(work, Long.MAX_VALUE);
+        aggOut.appendRecords(mapper, aggKeys, aggEntries);
+        if (!work.exists()) work.mkdirs();
+        for (Path segment : aggOut.segments()) {
+            Files.move(segment, work.toPath().resolve(HistoryLog.segmentName(first)));
+        }
+        List<Path> rawSegments = rawOut.segments();
+        for (int i = 0; i < rawSegments.size(); i++) {
+            Files.move(rawSegments.get(i), work.toPath().resolve(HistoryLog.segmentName(first + 1 + i)));
+        }
+        // the kept raw entries were re-interned, so this dictionary only holds reasons still referenced
+        File reasons = new File(workRaw, ReasonDictionary.FILE_NAME);
+        if (reasons.exists()) {
+            Files.move(reasons.toPath(), work.toPath().resolve(ReasonDictionary.FILE_NAME), StandardCopyOption.REPLACE_EXISTING);
+        }
+        deleteRecursively(workRaw);
+
+        // swap directories
+        Files.move(dir.toPath(), old.toPath());
+        Files.move(work.toPath(), dir.toPath());
+        deleteRecursively(old);
+
+        HistoryLog compacted = new HistoryLog(dir, segmentMaxBytes);
+        writeMarker(compacted, totalBytes(compacted));
+        System.out.println("ℹ️ HistoryRetention: compacted history log to " + totalBytes(compacted) + " bytes");
+        return compacted.end();
+    }
+
+    /** Finishes or undoes a directory swap that was interrupted (JVM killed between the two renames). */
+    static void recover(File dir) throws IOException {
+        File old = new File(dir.getParentFile(), dir.getName() + ".old");
+        if (!dir.exists() && old.exists()) {
+            Files.move(old.toPath(), dir.toPath());
+        } else {
+            deleteRecursively(old);
+        }
+    }
+
+    private String periodKey(LocalDateTime ts) {
+        LocalDate d = ts.toLocalDate();
+        if ("WEEK".equals(period)) d = d.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        return d.toString();
+    }
+
+    static boolean isAggregate(JsonNode entry) {
+        return entry.path("aggregate").asBoolean(false);
+    }
+
+    private static LocalDateTime parseTimestamp(String s) {
+        if (s == null) return null;
+        try {
+            return LocalDateTime.parse(s);
+        } catch (DateTimeParseException ex) {
+            return null;
+        }
+    }
+
+    private static long totalBytes(HistoryLog log) throws IOException {
+        long size = 0;
+        for (Path p : log.segments()) size += Files.size(p);
+        return size;
+    }
+
+    private static long readMarker(HistoryLog log) {
+        File f = new File(log.getDir(), MARKER);
+        try {
+            return f.exists() ? Long.parseLong(new String(Files.readAllBytes(f.toPath())).trim()) : 0;
+        } catch (IOException | NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    private static void writeMarker(HistoryLog log, long bytes) throws IOException {
+        Files.write(new File(log.getDir(), MARKER).toPath(), Long.toString(bytes).getBytes());
+    }
+
+    private static void deleteRecursively(File f) {
+        if (!f.exists()) return;
+        File[] children = f.listFiles();
+        if (children != null) for (File c : children) deleteRecursively(c);
+        f.delete();
+    }
+
+    // ---------------- helper classes ----------------
+    /** Pass/fail/flaky counts and duration stats for one test over one period. */
+    static class Aggregate {
+        final String period;
+        final String granularity;
+        int passCount, failCount, flakyCount;
+        String lastPassedDate, firstTimestamp, lastTimestamp;
+        long durationCount, durationMin = Long.MAX_VALUE, durationMax = Long.MIN_VALUE;
+        double durationMean, durationM2;
+        final List<Long> samples = new ArrayList<>();
+
+        Aggregate(String period, String granularity) {
+            this.period = period;
+            this.granularity = granularity;
+        }
+
+        void add(JsonNode e) {
+            String status = e.path("status").asText("");
+            String ts = e.path("timestamp").asText(null);
+            if ("SUCCESSFUL".equals(status)) {
+                passCount++;
+                lastPassedDate = max(lastPassedDate, ts);
+            } else if ("FLAKY".equals(status)) {
+                flakyCount++;
+            } else {
+                failCount++;
+            }
+            firstTimestamp = min(firstTimestamp, ts);
+            lastTimestamp = max(lastTimestamp, ts);
+            if (e.has("durationMs")) {
+                long d = HistoryStore.durationMs(e);
+                mergeDurations(1, d, 0, d, d);
+                samples.add(d);
+            }
+        }
+
+        // an aggregate written by an earlier compaction for the same test + period
+        void merge(JsonNode a) {
+            passCount += a.path("passCount").asInt(0);
+            failCount += a.path("failCount").asInt(0);
+            flakyCount += a.path("flakyCount").asInt(0);
+            lastPassedDate = max(lastPassedDate, a.path("lastPassedDate").asText(null));
+            firstTimestamp = min(firstTimestamp, a.path("firstTimestamp").asText(null));
+            lastTimestamp = max(lastTimestamp, a.path("lastTimestamp").asText(null));
+            long n = a.path("durationCount").asLong(0);
+            double scale = HistoryStore.durationScale(a);
+            if (n > 0) {
+                mergeDurations(n, a.path("durationMean").asDouble(0) * scale, a.path("durationM2").asDouble(0) * scale * scale,
+                        Math.round(a.path("durationMin").asLong(0) * scale), Math.round(a.path("durationMax").asLong(0) * scale));
+            }
+            for (JsonNode s : a.path("durations")) samples.add(Math.round(s.asLong() * scale));
+        }
+
+        // Chan et al. parallel combination of running mean / M2
+        private void mergeDurations(long n, double mean, double m2, long min, long max) {
+            long total = durationCount + n;
+            double delta = mean - durationMean;
+            durationMean += delta * n / total;
+            durationM2 += m2 + delta * delta * durationCount * n / total;
+            durationCount = total;
+            durationMin = Math.min(durationMin, min);
+            durationMax = Math.max(durationMax, max);
+        }
+
+        ObjectNode toNode(ObjectMapper mapper) {
+            ObjectNode n = mapper.createObjectNode();
+            n.put("aggregate", true);
+            n.put("period", period);
+            n.put("granularity", granularity);
+            n.put("firstTimestamp", firstTimestamp);
+            n.put("lastTimestamp", lastTimestamp);
+            n.put("passCount", passCount);
+            n.put("failCount", failCount);
+            n.put("flakyCount", flakyCount);
+            n.put("lastPassedDate", lastPassedDate);
+            n.put("durationCount", durationCount);
+            if (durationCount > 0) {
+                n.put(HistoryStore.DURATION_UNIT, HistoryStore.DURATION_UNIT_MS);
+                n.put("durationMean", durationMean);
+                n.put("durationM2", durationM2);
+                n.put("durationMin", durationMin);
+                n.put("durationMax", durationMax);
+                List<Long> kept = downsample();
+                n.put("p50", percentile(kept, 50));
+                n.put("p95", percentile(kept, 95));
+                n.put("p99", percentile(kept, 99));
+                ArrayNode arr = n.putArray("durations");
+                for (Long d : kept) arr.add(d);
+            }
+            return n;
+        }
+
+        // sorted, and thinned to at most MAX_AGGREGATE_SAMPLES evenly spaced values
+        private List<Long> downsample() {
+            List<Long> sorted = new ArrayList<>(samples);
+            Collections.sort(sorted);
+            if (sorted.size() <= MAX_AGGREGATE_SAMPLES) return sorted;
+            List<Long> kept = new ArrayList<>(MAX_AGGREGATE_SAMPLES);
+            for (int i = 0; i < MAX_AGGREGATE_SAMPLES; i++) {
+                kept.add(sorted.get((int) ((long) i * (sorted.size() - 1) / (MAX_AGGREGATE_SAMPLES - 1))));
+            }
+            return kept;
+        }
+
+        // nearest-rank percentile over a sorted list
+        static long percentile(List<Long> sorted, int p) {
+            if (sorted.isEmpty()) return 0;
+            int rank = (int) Math.ceil(p / 100.0 * sorted.size());
+            return sorted.get(Math.max(0, rank - 1));
+        }
+
+        private static String max(String a, String b) {
+            if (a == null) return b;
+            if (b == null) return a;
+            return a.compareTo(b) >= 0 ? a : b;
+        }
+
+        private static String min(String a, String b) {
+            if (a == null) return b;
+            if (b == null) return a;
+            return a.compareTo(b) <= 0 ? a : b;
+        }
+    }
+}
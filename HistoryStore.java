@@ -0,0 +1,197 @@
+package utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * Storage backend for the run history, read by FlakyTestAnalyzer / HistoryIndex and the report.
+ * - HistoryLog: append-only JSON lines (default, supports retention/compaction)
+ * - ColumnarHistoryStore: memory-mapped binary columns (-Dflaky.history.backend=columnar)
+ *
+ * Entries use the legacy test-history.json entry shape (timestamp, status, reason, durationMs, flakyPattern),
+ * plus setupMs / teardownMs (before / after hook time, not part of durationMs) when the run reported hooks, and
+ * featureTags (the enclosing feature's tags, space separated) when it has any, so ShardPlanner keeps affinity
+ * without a report.
+ *
+ * Duration units: entries written before the parser kept Cucumber's nanoseconds apart hold the raw nanosecond
+ * sum in durationMs. Entries (and retention aggregates) written since carry durationUnit = "ms"; readers go
+ * through durationMs(entry) / durationScale(entry) so untagged values are converted on replay.
+ */
+interface HistoryStore {
+
+    byte STATUS_SUCCESSFUL = 0;
+    byte STATUS_FAILED = 1;
+    byte STATUS_FLAKY = 2;
+
+    String DURATION_UNIT = "durationUnit";
+    String DURATION_UNIT_MS = "ms";
+
+    /** Short name stored in the index so switching backends forces a rebuild. */
+    String name();
+
+    boolean isEmpty();
+
+    /** Appends one run's entries, keyed by test. */
+    default void append(ObjectMapper mapper, Map<String, ObjectNode> entries) throws IOException {
+        appendRecords(mapper, new ArrayList<>(entries.keySet()), new ArrayList<>(entries.values()));
+    }
+
+    /** Same as append, for callers that write several records per test (keys.get(i) belongs to entries.get(i)). */
+    void appendRecords(ObjectMapper mapper, List<String> keys, List<ObjectNode> entries) throws IOException;
+
+    /** Streams every record written after {@code from} (null = from the start) to the handler, oldest first. */
+    void replay(ObjectMapper mapper, Position from, RecordHandler handler) throws IOException;
+
+    /** Position just past the last record, i.e. where the next append will land. */
+    Position end() throws IOException;
+
+    /** True if the store still contains the given position. */
+    boolean contains(Position position);
+
+    /**
+     * Typed full scan over raw runs (aggregates are skipped), oldest first.
+     * Backends that can do it without building JSON trees override this.
+     */
+    default void scan(ObjectMapper mapper, RowVisitor visitor) throws IOException {
+        replay(mapper, null, (key, entry) -> {
+            if (HistoryRetention.isAggregate(entry)) return;
+            visitor.visit(key, toEpochMillis(entry.path("timestamp").asText(null)),
+                    statusCode(entry.path("status").asText("")),
+                    durationMs(entry),
+                    entry.path("reason").asText(null));
+        });
+    }
+
+    /** One-time migration: copies every entry of an old test-history.json into the store. */
+    default void importLegacy(ObjectMapper mapper, File legacyFile) throws IOException {
+        JsonNode tests = mapper.readTree(legacyFile).path("tests");
+        if (!tests.isObject()) return;
+        List<String> keys = new ArrayList<>();
+        List<ObjectNode> entries = new ArrayList<>();
+        Iterator<Map.Entry<String, JsonNode>> it = tests.fields();
+        while (it.hasNext()) {
+            Map.Entry<String, JsonNode> e = it.next();
+            if (!e.getValue().isArray()) continue;
+            for (JsonNode entry : e.getValue()) {
+                if (!entry.isObject()) continue;
+                keys.add(e.getKey());
+                entries.add((ObjectNode) entry);
+            }
+        }
+        appendRecords(mapper, keys, entries);
+        System.out.println("ℹ️ HistoryStore: imported " + legacyFile.getName() + " into " + name() + " history");
+    }
+
+    /** One-time migration between backends, in batches so the source is never held in memory. */
+    default void importFrom(ObjectMapper mapper, HistoryStore source) throws IOException {
+        List<String> keys = new ArrayList<>();
+        List<ObjectNode> entries = new ArrayList<>();
+        source.replay(mapper, null, (key, entry) -> {
+            keys.add(key);
+            entries.add(entry);
+            if (keys.size() >= 4096) {
+                appendRecords(mapper, keys, entries);
+                keys.clear();
+                entries.clear();
+            }
+        });
+        appendRecords(mapper, keys, entries);
+        System.out.println("ℹ️ HistoryStore: imported " + source.name() + " history into " + name() + " history");
+    }
+
+    /**
+     * The store FlakyTestAnalyzer keeps under historyDir (-Dflaky.history.backend), for readers such as
+     * HistoryQuery and ShardPlanner; the caller holds the history lock.
+     */
+    static HistoryStore open(File historyDir, ObjectMapper mapper) throws IOException {
+        File logDir = new File(historyDir, "history-log");
+        HistoryRetention.recover(logDir);
+        if ("columnar".equalsIgnoreCase(System.getProperty("flaky.history.backend", "log"))) {
+            return ColumnarHistoryStore.open(new File(historyDir, "history-columnar"), mapper);
+        }
+        return new HistoryLog(logDir, HistoryLog.DEFAULT_SEGMENT_BYTES);
+    }
+
+    /** durationMs of a run entry in milliseconds, whichever unit it was written in. */
+    static long durationMs(JsonNode entry) {
+        return Math.round(entry.path("durationMs").asLong(0) * durationScale(entry));
+    }
+
+    /** Factor from the entry's (or aggregate's) duration values to milliseconds: 1, or 1e-6 for untagged nanoseconds. */
+    static double durationScale(JsonNode entry) {
+        return DURATION_UNIT_MS.equals(entry.path(DURATION_UNIT).asText(null)) ? 1 : 1e-6;
+    }
+
+    static byte statusCode(String status) {
+        if ("SUCCESSFUL".equals(status)) return STATUS_SUCCESSFUL;
+        if ("FLAKY".equals(status)) return STATUS_FLAKY;
+        return STATUS_FAILED;
+    }
+
+    static String statusName(byte code) {
+        switch (code) {
+            case STATUS_SUCCESSFUL: return "SUCCESSFUL";
+            case STATUS_FLAKY: return "FLAKY";
+            default: return "FAILED";
+        }
+    }
+
+    // History timestamps are LocalDateTime.toString(); stored as if UTC they round-trip to the millisecond
+    static long toEpochMillis(String timestamp) {
+        if (timestamp == null) return Long.MIN_VALUE;
+        try {
+            return LocalDateTime.parse(timestamp).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeParseException ex) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    static String fromEpochMillis(long millis) {
+        if (millis == Long.MIN_VALUE) return null;
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC).toString();
+    }
+
+    // ---------------- helper types ----------------
+    interface RecordHandler {
+        void accept(String key, ObjectNode entry) throws IOException;
+    }
+
+    interface RowVisitor {
+        void visit(String test, long epochMillis, byte status, long durationMs, String reason) throws IOException;
+    }
+
+    /** Backend-specific cursor: segment + byte offset for the log, (1, row count) for the columnar store. */
+    class Position {
+        public int segment;
+        public long offset;
+
+        Position() {
+        }
+
+        Position(int segment, long offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Position)) return false;
+            Position p = (Position) o;
+            return segment == p.segment && offset == p.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(segment, offset);
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package hooks;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Copies the body of a component report into the merged report.
+ * - Drops the document shell: doctype, html/head/body tags, head title, meta, base and comments
+ * - Keeps style blocks, stylesheet links and scripts from head and body, but only the first copy:
+ *   external scripts/stylesheets are deduplicated by URL, inline ones by SHA-256 of their content
+ * - Inline scripts over 1 MB (data islands) are streamed through without deduplication
+ *
+ * Works on raw UTF-8 bytes in a fixed 256 KB buffer: markup is ASCII and multi-byte sequences never contain
+ * ASCII bytes, so text and ordinary tags are copied as byte ranges without decoding. One instance is shared
+ * by all components of a merge so duplicates across reports are dropped too.
+ */
+final class HtmlFragments {
+
+    private static final int MAX_TAG = 64 * 1024;
+    private static final int MAX_DEDUP_SCRIPT = 1024 * 1024;
+    private static final Pattern ATTR = Pattern.compile("([a-zA-Z_:-]+)\\s*=\\s*(\"[^\"]*\"|'[^']*'|[^\\s>]+)");
+
+    private final Set<String> seen = new HashSet<>();
+
+    void copyBody(Path source, OutputStream out) throws IOException {
+        try (Input in = new Input(Files.newInputStream(source))) {
+            boolean inHead = false;
+            while (true) {
+                // text run up to the next '<'
+                int lt = in.indexOf((byte) '<');
+                if (!inHead) out.write(in.buf, in.pos, lt - in.pos);
+                in.pos = lt;
+                if (lt == in.lim) {
+                    if (!in.fill()) break;
+                    continue;
+                }
+
+                if (in.lim - in.pos < 4) in.fill();
+                if (in.startsWith("<!--")) {
+                    in.pos += 4;
+                    in.skipUntil("-->", OutputStream.nullOutputStream());
+                    continue;
+                }
+                int end = in.tagEnd();
+                if (end < 0) {
+                    // '<' that is not markup, or a tag longer than MAX_TAG: keep the text as it was
+                    if (!inHead) out.write('<');
+                    in.pos++;
+                    continue;
+                }
+                int tagStart = in.pos;
+                String name = in.tagName();
+                switch (name) {
+                    case "head":
+                        inHead = true;
+                        in.pos = end;
+                        break;
+                    case "/head":
+                    case "body":
+                        inHead = false;
+                        in.pos = end;
+                        break;
+                    case "!doctype":
+                    case "html":
+                    case "/html":
+                    case "/body":
+                    case "meta":
+                    case "base":
+                        in.pos = end;
+                        break;
+                    case "title":
+                        if (!inHead) {
+                            // e.g. an SVG title
+                            out.write(in.buf, tagStart, end - tagStart);
+                            in.pos = end;
+                            break;
+                        }
+                        in.pos = end;
+                        in.skipUntil("</title", OutputStream.nullOutputStream());
+                        in.skipUntil(">", OutputStream.nullOutputStream());
+                        break;
+                    case "style":
+                        copyStyle(in, in.take(end), out);
+                        break;
+                    case "script":
+                        copyScript(in, in.take(end), out);
+                        break;
+                    case "link":
+                        String tag = in.take(end);
+                        String rel = attr(tag, "rel");
+                        if (rel != null && rel.toLowerCase(Locale.ROOT).contains("stylesheet")) {
+                            if (seen.add("href:" + attr(tag, "href"))) latin1(out, tag);
+                        } else if (!inHead) {
+                            latin1(out, tag);
+                        }
+                        break;
+                    default:
+                        if (!inHead) out.write(in.buf, tagStart, end - tagStart);
+                        in.pos = end;
+                }
+            }
+        }
+    }
+
+    private void copyStyle(Input in, String tag, OutputStream out) throws IOException {
+        ByteArrayOutputStream css = new ByteArrayOutputStream();
+        in.skipUntil("</style", css);
+        in.skipUntil(">", OutputStream.nullOutputStream());
+        if (!seen.add("style:" + sha256(css.toByteArray()))) return;
+        latin1(out, tag);
+        css.writeTo(out);
+        latin1(out, "</style>");
+    }
+
+    private void copyScript(Input in, String tag, OutputStream out) throws IOException {
+        String src = attr(tag, "src");
+        if (src != null) {
+            boolean first = seen.add("src:" + src);
+            if (first) latin1(out, tag);
+            in.skipUntil("</script", first ? out : OutputStream.nullOutputStream());
+            in.skipUntil(">", OutputStream.nullOutputStream());
+            if (first) latin1(out, "</script>");
+            return;
+        }
+        ScriptSink body = new ScriptSink(tag, out);
+        in.skipUntil("</script", body);
+        in.skipUntil(">", OutputStream.nullOutputStream());
+        if (!body.spilled) {
+            if (!seen.add("script:" + sha256(body.buf.toByteArray()))) return;
+            latin1(out, tag);
+            body.buf.writeTo(out);
+        }
+        latin1(out, "</script>");
+    }
+
+    private static String attr(String tag, String name) {
+        Matcher m = ATTR.matcher(tag);
+        while (m.find()) {
+            if (m.group(1).equalsIgnoreCase(name)) {
+                String v = m.group(2);
+                if (v.startsWith("\"") || v.startsWith("'")) v = v.substring(1, v.length() - 1);
+                return v.trim();
+            }
+        }
+        return null;
+    }
+
+    private static void latin1(OutputStream out, String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    // ---------------- helper classes ----------------
+    /** Refillable byte window; a tag is always scanned whole inside it (the window is larger than MAX_TAG). */
+    private static final class Input implements Closeable {
+        final InputStream in;
+        final byte[] buf = new byte[4 * MAX_TAG];
+        int pos;
+        int lim;
+        boolean eof;
+
+        Input(InputStream in) {
+            this.in = in;
+        }
+
+        /** Moves unread bytes to the front and reads more; false once nothing more can be read. */
+        boolean fill() throws IOException {
+            if (eof) return false;
+            if (pos > 0) {
+                System.arraycopy(buf, pos, buf, 0, lim - pos);
+                lim -= pos;
+                pos = 0;
+            }
+            if (lim == buf.length) return true;
+            int n = in.read(buf, lim, buf.length - lim);
+            if (n < 0) {
+                eof = true;
+                return false;
+            }
+            lim += n;
+            return true;
+        }
+
+        int indexOf(byte b) {
+            int i = pos;
+            while (i < lim && buf[i] != b) i++;
+            return i;
+        }
+
+        /** pos is on '<': index just past the closing '>' (quotes respected), or -1 if this is not a tag. */
+        int tagEnd() throws IOException {
+            if (lim - pos < 2) fill();
+            if (lim - pos < 2) return -1;
+            int first = buf[pos + 1];
+            if (!(Character.isLetter(first) || first == '/' || first == '!')) return -1;
+            byte quote = 0;
+            int i = pos + 1;
+            while (true) {
+                if (i == lim) {
+                    int scanned = i - pos;
+                    if (scanned >= MAX_TAG || !fill()) return -1;
+                    i = pos + scanned;
+                    continue;
+                }
+                byte c = buf[i++];
+                if (quote != 0) {
+                    if (c == quote) quote = 0;
+                } else if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (c == '>') {
+                    return i;
+                }
+            }
+        }
+
+        boolean startsWith(String s) {
+            if (lim - pos < s.length()) return false;
+            for (int i = 0; i < s.length(); i++) {
+                if (buf[pos + i] != s.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        String tagName() {
+            int end = pos + 1;
+            while (end < lim) {
+                byte c = buf[end];
+                if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '>' || (c == '/' && end > pos + 1)) break;
+                end++;
+            }
+            return new String(buf, pos + 1, end - pos - 1, StandardCharsets.ISO_8859_1).toLowerCase(Locale.ROOT);
+        }
+
+        /** The tag [pos, end) as ISO-8859-1 so the bytes round-trip; moves past it. */
+        String take(int end) {
+            String tag = new String(buf, pos, end - pos, StandardCharsets.ISO_8859_1);
+            pos = end;
+            return tag;
+        }
+
+        // copies bytes to sink until the ASCII end marker (matched case-insensitively, consumed, not copied);
+        // KMP so overlapping prefixes such as "--->" for "-->" are handled, pending bytes keep their original case
+        void skipUntil(String marker, OutputStream sink) throws IOException {
+            int len = marker.length();
+            int[] fail = new int[len];
+            for (int i = 1, k = 0; i < len; i++) {
+                while (k > 0 && marker.charAt(i) != marker.charAt(k)) k = fail[k - 1];
+                if (marker.charAt(i) == marker.charAt(k)) k++;
+                fail[i] = k;
+            }
+            byte[] pending = new byte[len];
+            byte first = (byte) marker.charAt(0);
+            int m = 0;
+            while (true) {
+                if (pos == lim && !fill()) break;
+                if (m == 0) {
+                    // fast path: copy everything up to the next possible marker start in one write
+                    int i = indexOf(first);
+                    sink.write(buf, pos, i - pos);
+                    pos = i;
+                    if (pos == lim) continue;
+                }
+                int c = buf[pos++] & 0xff;
+                int lower = c >= 'A' && c <= 'Z' ? c + 32 : c;
+                while (m > 0 && lower != marker.charAt(m)) {
+                    int k = fail[m - 1];
+                    sink.write(pending, 0, m - k);
+                    System.arraycopy(pending, m - k, pending, 0, k);
+                    m = k;
+                }
+                if (lower == marker.charAt(m)) {
+                    pending[m++] = (byte) c;
+                    if (m == len) return;
+                } else {
+                    sink.write(c);
+                }
+            }
+            sink.write(pending, 0, m);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // buffers an inline script for hashing; past MAX_DEDUP_SCRIPT it writes the tag and streams the rest
+    private static final class ScriptSink extends OutputStream {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        final String tag;
+        final OutputStream out;
+        boolean spilled;
+
+        ScriptSink(String tag, OutputStream out) {
+            this.tag = tag;
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (spilled) {
+                out.write(b, off, len);
+                return;
+            }
+            buf.write(b, off, len);
+            if (buf.size() > MAX_DEDUP_SCRIPT) {
+                latin1(out, tag);
+                buf.writeTo(out);
+                buf.reset();
+                spilled = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Streaming HTML output for the reports.
+ * - Writes through a 64 KB buffered UTF-8 writer straight to a temp file, renamed over the target on close
+ * - text() escapes in one pass, copying unescaped runs directly from the source string
+ * - num()/percent()/latency() format into a reused char buffer, no String.format or boxing
+ *
+ * Peak heap is the buffer size, however many rows are written.
+ */
+final class HtmlWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Writer out;
+    private final Path target;
+    private final Path tmp;
+    private final char[] digits = new char[20];
+    private boolean ok;
+
+    private HtmlWriter(Writer out, Path target, Path tmp) {
+        this.out = out;
+        this.target = target;
+        this.tmp = tmp;
+    }
+
+    static HtmlWriter open(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.exists()) dir.mkdirs();
+        Path target = file.toPath();
+        Path tmp = new File(dir, file.getName() + "." + ProcessHandle.current().pid() + ".tmp").toPath();
+        Writer w = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(tmp), StandardCharsets.UTF_8), BUFFER_SIZE);
+        return new HtmlWriter(w, target, tmp);
+    }
+
+    /** Markup written as-is. */
+    HtmlWriter raw(String s) throws IOException {
+        out.write(s);
+        return this;
+    }
+
+    HtmlWriter raw(char c) throws IOException {
+        out.write(c);
+        return this;
+    }
+
+    /** Text content or attribute value, escaped in a single pass. */
+    HtmlWriter text(String s) throws IOException {
+        if (s == null) return this;
+        int start = 0;
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            String entity;
+            switch (s.charAt(i)) {
+                case '&': entity = "&amp;"; break;
+                case '<': entity = "&lt;"; break;
+                case '>': entity = "&gt;"; break;
+                case '\'': entity = "&#39;"; break;
+                case '"': entity = "&quot;"; break;
+                default: continue;
+            }
+            if (i > start) out.write(s, start, i - start);
+            out.write(entity);
+            start = i + 1;
+        }
+        if (start < len) out.write(s, start, len - start);
+        return this;
+    }
+
+    HtmlWriter num(long v) throws IOException {
+        if (v == Long.MIN_VALUE) {
+            out.write("-9223372036854775808");
+            return this;
+        }
+        if (v < 0) {
+            out.write('-');
+            v = -v;
+        }
+        int pos = digits.length;
+        do {
+            digits[--pos] = (char) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        out.write(digits, pos, digits.length - pos);
+        return this;
+    }
+
+    /** One decimal place followed by '%', e.g. 87.5% (same output as String.format("%.1f%%")). */
+    HtmlWriter percent(double v) throws IOException {
+        long tenths = Math.round(v * 10);
+        if (tenths < 0) {
+            out.write('-');
+            tenths = -tenths;
+        }
+        num(tenths / 10);
+        out.write('.');
+        out.write((char) ('0' + tenths % 10));
+        out.write('%');
+        return this;
+    }
+
+    /** Microseconds as "12.3 ms" below a second and "1.23 s" above, "-" when negative (no data). */
+    HtmlWriter latency(long micros) throws IOException {
+        if (micros < 0) return raw('-');
+        if (micros < 1_000_000) {
+            long tenths = (micros + 50) / 100;
+            num(tenths / 10).raw('.').raw((char) ('0' + tenths % 10));
+            return raw(" ms");
+        }
+        long hundredths = (micros + 5_000) / 10_000;
+        num(hundredths / 100).raw('.').raw((char) ('0' + hundredths / 10 % 10)).raw((char) ('0' + hundredths % 10));
+        return raw(" s");
+    }
+
+    /** The underlying buffered writer, e.g. for a JsonGenerator writing a data island; never close it directly. */
+    Writer writer() {
+        return out;
+    }
+
+    /** Marks the document complete; only a completed document replaces the previous report. */
+    void commit() {
+        ok = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+        if (ok) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
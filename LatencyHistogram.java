@@ -0,0 +1,102 @@
+package utils;
+
+/**
+ * Mergeable fixed-memory latency histogram (HdrHistogram-style log-linear buckets), values in microseconds.
+ * - Exact buckets below 128 us, then 64 sub-buckets per power of two: every recorded value lands in a
+ *   bucket less than 1.6% wide, so percentiles are within ~1.6% of the true value
+ * - Values are clamped to 2^36 us (~19 h); the bucket space is fixed at 1984 counters and only the
+ *   window between the lowest and highest used bucket is allocated
+ * - merge() adds bucket counts, so per-run histograms fold into the persisted ones without keeping samples
+ * - sum keeps the exact total of the (clamped) values, for time-spent totals and means
+ *
+ * Public fields are the persisted form (see LatencyStore). Not thread-safe; callers serialize updates.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 7;
+    private static final int SUB_COUNT = 1 << SUB_BITS;          // 128 exact buckets
+    private static final int HALF_COUNT = SUB_COUNT >> 1;        // 64 sub-buckets per power of two above
+    static final long MAX_VALUE = (1L << 36) - 1;
+    static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    public long count;
+    public long min = Long.MAX_VALUE;
+    public long max;
+    public long sum;
+    /** Bucket index of counts[0]. */
+    public int offset;
+    public long[] counts = new long[0];
+
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    public void record(long micros) {
+        long v = Math.max(0, Math.min(MAX_VALUE, micros));
+        int idx = index(v);
+        ensure(idx, idx);
+        counts[idx - offset]++;
+        count++;
+        sum += v;
+        if (v < min) min = v;
+        if (v > max) max = v;
+    }
+
+    public void merge(LatencyHistogram other) {
+        if (other == null || other.count == 0) return;
+        ensure(other.offset, other.offset + other.counts.length - 1);
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[other.offset + i - offset] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        if (other.min < min) min = other.min;
+        if (other.max > max) max = other.max;
+    }
+
+    /** Value at the given percentile (0-100) in microseconds, or -1 when nothing was recorded. */
+    public long percentile(double p) {
+        if (count == 0) return -1;
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // highest value the bucket stands for, kept inside the recorded range
+                return Math.max(min, Math.min(max, highestEquivalent(offset + i)));
+            }
+        }
+        return max;
+    }
+
+    static int index(long v) {
+        if (v < SUB_COUNT) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - (SUB_BITS - 1);
+        return SUB_COUNT + (shift - 1) * HALF_COUNT + (int) (v >>> shift) - HALF_COUNT;
+    }
+
+    static long highestEquivalent(int idx) {
+        if (idx < SUB_COUNT) return idx;
+        int k = idx - SUB_COUNT;
+        int shift = k / HALF_COUNT + 1;
+        long lowest = (long) (k % HALF_COUNT + HALF_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    // grows the allocated window to cover [lo, hi]; never beyond the fixed bucket space
+    private void ensure(int lo, int hi) {
+        if (counts.length == 0) {
+            offset = lo;
+            counts = new long[hi - lo + 1];
+            return;
+        }
+        int curHi = offset + counts.length - 1;
+        if (lo >= offset && hi <= curHi) return;
+        int newLo = Math.max(0, Math.min(lo, offset));
+        int newHi = Math.min(BUCKETS - 1, Math.max(hi, curHi));
+        long[] grown = new long[newHi - newLo + 1];
+        System.arraycopy(counts, 0, grown, offset - newLo, counts.length);
+        counts = grown;
+        offset = newLo;
+    }
+}
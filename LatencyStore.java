@@ -0,0 +1,213 @@
+package utils;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Latency histograms persisted next to the history (test-history/latency-histograms.json).
+ * - One LatencyHistogram per scenario key (scenario duration), one per step text (step duration) and one per
+ *   step definition (glue method from match.location, every step it matched), the hotspot profile, and one
+ *   per before / after hook method (fixture time, which scenario durations leave out)
+ * - Each run writes its own histograms to latency-runs/run-<millis>-<pid>.json (O(run), no lock needed); load
+ *   merges the base file with the run files it has not folded yet, so readers see every run without samples
+ * - Once MAX_RUN_FILES run files pile up they are folded into the base under test-history/.latency.lock
+ *   (skipped, not waited for, when another process is folding); "folded" names the run files already in the
+ *   base, so a reader racing a fold never counts a run twice
+ * - Unlike HistoryIndex this cannot be rebuilt from the history log (steps are not logged);
+ *   an unreadable file is reported and started afresh
+ *
+ * At most MAX_STEPS distinct step texts (and as many glue methods) are tracked, so heavily parameterised
+ * outlines cannot grow it unbounded.
+ */
+final class LatencyStore {
+
+    private static final int VERSION = 1;
+    static final int MAX_STEPS = 5000;
+    static final int MAX_RUN_FILES = 32;
+    private static final String RUN_DIR = "latency-runs";
+    private static final int MAX_LOAD_ATTEMPTS = 5;
+
+    public int version = VERSION;
+    public Map<String, LatencyHistogram> scenarios = new HashMap<>();
+    public Map<String, LatencyHistogram> steps = new HashMap<>();
+    public Map<String, LatencyHistogram> glue = new HashMap<>();
+    public Map<String, LatencyHistogram> hooks = new HashMap<>();
+    // run files merged into this base; only the base carries it
+    public Set<String> folded = new HashSet<>();
+
+    /** Base file plus every run file not folded into it yet. */
+    static LatencyStore load(ObjectMapper mapper, File file) {
+        for (int attempt = 1; ; attempt++) {
+            // list before reading the base: a run file that disappears afterwards was folded into a newer base,
+            // so start over
+            File[] runs = runFiles(file);
+            LatencyStore store = readFile(mapper, file);
+            boolean complete = true;
+            for (File run : runs) {
+                if (store.folded.contains(run.getName())) continue;
+                LatencyStore runStore = readFile(mapper, run);
+                if (!run.exists()) {
+                    complete = false;
+                    break;
+                }
+                store.merge(runStore);
+            }
+            if (complete || attempt == MAX_LOAD_ATTEMPTS) return store;
+        }
+    }
+
+    /**
+     * Writes one run's histograms as a new run file (temp file + rename), then folds the run files into the base
+     * once MAX_RUN_FILES have piled up.
+     */
+    void saveRun(ObjectMapper mapper, File file) throws IOException {
+        File dir = new File(file.getAbsoluteFile().getParentFile(), RUN_DIR);
+        String name = "run-" + System.currentTimeMillis() + "-" + ProcessHandle.current().pid() + ".json";
+        save(mapper, new File(dir, name));
+        if (runFiles(file).length >= MAX_RUN_FILES) fold(mapper, file);
+    }
+
+    private static void fold(ObjectMapper mapper, File file) throws IOException {
+        try (HistoryLock lock = HistoryLock.tryAcquire(new File(file.getAbsoluteFile().getParentFile(), ".latency.lock"))) {
+            if (lock == null) return;
+            LatencyStore base = readFile(mapper, file);
+            List<File> merged = new ArrayList<>();
+            for (File run : runFiles(file)) {
+                if (!base.folded.contains(run.getName())) base.merge(readFile(mapper, run));
+                merged.add(run);
+            }
+            // names of files deleted by an earlier fold are no longer needed
+            base.folded.clear();
+            for (File run : merged) base.folded.add(run.getName());
+            base.save(mapper, file);
+            for (File run : merged) Files.deleteIfExists(run.toPath());
+        }
+    }
+
+    private static File[] runFiles(File file) {
+        File[] runs = new File(file.getAbsoluteFile().getParentFile(), RUN_DIR)
+                .listFiles((d, name) -> name.startsWith("run-") && name.endsWith(".json"));
+        if (runs == null) return new File[0];
+        Arrays.sort(runs);
+        return runs;
+    }
+
+    /** Adds another store's histograms (the step, glue and hook maps stay capped at MAX_STEPS keys). */
+    void merge(LatencyStore other) {
+        mergeInto(scenarios, other.scenarios, Integer.MAX_VALUE);
+        mergeInto(steps, other.steps, MAX_STEPS);
+        mergeInto(glue, other.glue, MAX_STEPS);
+        mergeInto(hooks, other.hooks, MAX_STEPS);
+    }
+
+    private static void mergeInto(Map<String, LatencyHistogram> into, Map<String, LatencyHistogram> from, int max) {
+        for (Map.Entry<String, LatencyHistogram> e : from.entrySet()) {
+            LatencyHistogram h = into.get(e.getKey());
+            if (h == null) {
+                if (into.size() >= max) continue;
+                h = new LatencyHistogram();
+                into.put(e.getKey(), h);
+            }
+            h.merge(e.getValue());
+        }
+    }
+
+    private static LatencyStore readFile(ObjectMapper mapper, File file) {
+        if (!file.exists()) return new LatencyStore();
+        try {
+            LatencyStore store = mapper.readerFor(LatencyStore.class)
+                    .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                    .readValue(file);
+            if (store.version == VERSION && store.scenarios != null && store.steps != null) {
+                // files written before glue / hook profiling start with an empty profile
+                if (store.glue == null) store.glue = new HashMap<>();
+                if (store.hooks == null) store.hooks = new HashMap<>();
+                if (store.folded == null) store.folded = new HashSet<>();
+                return store;
+            }
+        } catch (IOException ex) {
+            System.out.println("⚠️ LatencyStore: " + file.getName() + " unreadable, starting new latency histograms");
+        }
+        return new LatencyStore();
+    }
+
+    /** Temp file + rename, like HistoryIndex.save. */
+    private void save(ObjectMapper mapper, File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.exists()) dir.mkdirs();
+        File tmp = new File(dir, file.getName() + "." + ProcessHandle.current().pid() + ".tmp");
+        mapper.writeValue(tmp, this);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    LatencyHistogram scenario(String key) {
+        return scenarios.get(key);
+    }
+
+    /** Folds one scenario result of this run: its total duration and each step duration, by text and by glue. */
+    void add(String key, FlakyTestAnalyzer.ScenarioResult r) {
+        scenarios.computeIfAbsent(key, k -> new LatencyHistogram()).recordNanos(r.durationNanos);
+        for (FlakyTestAnalyzer.StepTiming s : r.steps) {
+            if (s.step != null && !s.step.isEmpty()) record(steps, s.step, s.nanos);
+            if (s.location != null && !s.location.isEmpty()) record(glue, s.location, s.nanos);
+        }
+        for (FlakyTestAnalyzer.StepTiming h : r.hooks) {
+            record(hooks, h.location == null || h.location.isEmpty() ? "(unknown " + h.step + " hook)" : h.location, h.nanos);
+        }
+    }
+
+    private static void record(Map<String, LatencyHistogram> map, String key, long nanos) {
+        LatencyHistogram h = map.get(key);
+        if (h == null) {
+            if (map.size() >= MAX_STEPS) return;
+            h = new LatencyHistogram();
+            map.put(key, h);
+        }
+        h.recordNanos(nanos);
+    }
+
+    /** Step texts ordered by p99, slowest first. */
+    List<Map.Entry<String, LatencyHistogram>> slowestSteps(int limit) {
+        List<Map.Entry<String, LatencyHistogram>> list = new ArrayList<>(steps.entrySet());
+        list.sort((a, b) -> Long.compare(b.getValue().percentile(99), a.getValue().percentile(99)));
+        return list.size() > limit ? list.subList(0, limit) : list;
+    }
+
+    /** Step definitions ordered by total time spent in them, most first. */
+    List<Map.Entry<String, LatencyHistogram>> glueHotspots(int limit) {
+        return byTotal(glue, limit);
+    }
+
+    /** Hook methods ordered by total time spent in them, most first. */
+    List<Map.Entry<String, LatencyHistogram>> hookHotspots(int limit) {
+        return byTotal(hooks, limit);
+    }
+
+    /** Total time recorded across all step definitions, in microseconds. */
+    long glueMicros() {
+        return total(glue);
+    }
+
+    /** Total time recorded across all hooks, in microseconds. */
+    long hookMicros() {
+        return total(hooks);
+    }
+
+    private static List<Map.Entry<String, LatencyHistogram>> byTotal(Map<String, LatencyHistogram> map, int limit) {
+        List<Map.Entry<String, LatencyHistogram>> list = new ArrayList<>(map.entrySet());
+        list.sort((a, b) -> Long.compare(b.getValue().sum, a.getValue().sum));
+        return list.size() > limit ? list.subList(0, limit) : list;
+    }
+
+    private static long total(Map<String, LatencyHistogram> map) {
+        long total = 0;
+        for (LatencyHistogram h : map.values()) total += h.sum;
+        return total;
+    }
+}
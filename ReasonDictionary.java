@@ -0,0 +1,112 @@
+package utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Failure reasons of the history log, stored once in history-log/reasons.dict and referenced by id
+ * ("reasonId") from the log records.
+ * - One JSON string per line, line number = id; an append only writes the reasons that run introduced
+ * - Appended (and forced) before the records using the new ids, so every id on disk resolves
+ * - Never pruned in place: compaction writes the kept records into a fresh log with a fresh dictionary, so
+ *   reasons whose records were all folded into aggregates are not carried over
+ * - Replay hands out one shared TextNode per reason, so a message repeated in 2,000 records is one string
+ */
+final class ReasonDictionary {
+
+    static final String FILE_NAME = "reasons.dict";
+
+    private final File file;
+    private final ObjectMapper mapper;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<TextNode> nodes = new ArrayList<>();
+    private final List<String> pending = new ArrayList<>();
+
+    private ReasonDictionary(File file, ObjectMapper mapper) {
+        this.file = file;
+        this.mapper = mapper;
+    }
+
+    static ReasonDictionary load(ObjectMapper mapper, File file) {
+        ReasonDictionary dict = new ReasonDictionary(file, mapper);
+        try {
+            dict.read();
+        } catch (IOException ex) {
+            System.out.println("⚠️ ReasonDictionary: " + file.getName() + " unreadable, reasons of existing records are lost");
+        }
+        return dict;
+    }
+
+    /** Id for the reason, adding it (to be written by the next flush) if new. */
+    int idFor(String text) {
+        Integer id = ids.get(text);
+        if (id != null) return id;
+        int next = nodes.size();
+        ids.put(text, next);
+        nodes.add(TextNode.valueOf(text));
+        pending.add(text);
+        return next;
+    }
+
+    /** Appends the reasons added since the last flush. */
+    void flush() throws IOException {
+        if (pending.isEmpty()) return;
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.exists()) dir.mkdirs();
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        for (String text : pending) {
+            buf.write(mapper.writeValueAsBytes(text));
+            buf.write('\n');
+        }
+        try (FileChannel ch = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer out = ByteBuffer.wrap(buf.toByteArray());
+            while (out.hasRemaining()) ch.write(out);
+            ch.force(false);
+        }
+        pending.clear();
+    }
+
+    /** Shared node for the id, or null if the id is unknown. */
+    TextNode node(int id) {
+        return id >= 0 && id < nodes.size() ? nodes.get(id) : null;
+    }
+
+    // a torn last line would shift every later id, so it is cut off before anything is appended
+    private void read() throws IOException {
+        if (!file.exists()) return;
+        long valid = 0;
+        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            long pos = 0;
+            for (int b = in.read(); b != -1; b = in.read()) {
+                pos++;
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                String text;
+                try {
+                    text = mapper.readValue(line.toByteArray(), String.class);
+                } catch (IOException ex) {
+                    break;
+                }
+                ids.putIfAbsent(text, nodes.size());
+                nodes.add(TextNode.valueOf(text));
+                valid = pos;
+                line.reset();
+            }
+        }
+        if (valid < file.length()) {
+            try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                ch.truncate(valid);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package utils;
+
+/**
+ * Static CSS / JS for test-report.html.
+ *
+ * The page ships its rows as a compact JSON data island (script#report-data) and renders them client side:
+ * - status filter buttons use per-status row-id indexes built once on load
+ * - clicking a header sorts the current view (click again to reverse)
+ * - pagination (100 / 500 / 1000 / 5000 / all) with virtual scrolling inside the page,
+ *   so the DOM only ever holds the rows on screen
+ *
+ * Row layout: [name, status (0 PASSED, 1 FLAKY, 2 FAILED, 3 SLOW), lastPassed, reason, passRate tenths of %, trend,
+ *              p50, p95, p99, duration/baseline in thousandths, duration us, baseline us, flip rate tenths of %,
+ *              hook time us (before + after), before-hook time us]
+ * where trend is one char per run, oldest first: P passed, K flaky, F failed, flip rate is the share of
+ * consecutive runs in the status window that changed outcome, the percentiles are
+ * scenario durations in microseconds across runs (see LatencyStore), hook time is this run's and is not part of
+ * the scenario duration, and -1 means unknown.
+ */
+final class ReportAssets {
+
+    private ReportAssets() {
+    }
+
+    static final String CSS =
+            "body{font-family:Arial;margin:20px;}"
+            + "table{border-collapse:collapse;width:100%;table-layout:fixed;}"
+            + "th,td{border:1px solid #ccc;padding:8px;text-align:left;height:18px;"
+            + "white-space:nowrap;overflow:hidden;text-overflow:ellipsis;}"
+            + "th{background:#333;color:#fff;cursor:pointer;user-select:none;}"
+            + ".PASSED{background:#d4edda}.FLAKY{background:#fff3cd}.FAILED{background:#f8d7da}.SLOW{background:#d6e9f8}"
+            + "button{margin-right:5px;padding:6px 12px;border:none;border-radius:4px;cursor:pointer;background:#333;color:#fff;}"
+            + "button.active{background:#00796b;}"
+            + "#rp-scroll{height:70vh;overflow-y:auto;position:relative;border:1px solid #ccc;}"
+            + "#rp-spacer{position:relative;}#rp-body{position:absolute;top:0;left:0;right:0;}#rp-body tr{height:35px;}"
+            + ".rp-pager{margin:10px 0;}"
+            + ".rp-steps{margin-top:10px;}.rp-steps td:first-child{width:50%;}"
+            + ".rp-clusters{margin-bottom:20px;}.rp-clusters td{white-space:normal;height:auto;vertical-align:top;"
+            + "word-break:break-word;}.rp-clusters th:nth-child(1){width:8%}.rp-clusters th:nth-child(2){width:34%}"
+            + ".rp-clusters th:nth-child(3){width:34%}";
+
+    static final String COLGROUP =
+            "<colgroup><col style='width:19%'><col style='width:6%'><col style='width:9%'>"
+            + "<col style='width:17%'><col style='width:6%'><col style='width:7%'><col style='width:5%'>"
+            + "<col style='width:5%'><col style='width:5%'><col style='width:5%'><col style='width:11%'>"
+            + "<col style='width:5%'></colgroup>";
+
+    static final String SCRIPT =
+            "(function(){"
+            + "var D=JSON.parse(document.getElementById('report-data').textContent),R=D.rows,N=R.length;"
+            + "var ST=['PASSED','FLAKY','FAILED','SLOW'],TI={P:'\\u2705',K:'\\u26a0\\ufe0f',F:'\\u274c'},"
+            + "TT={P:'Passed',K:'Flaky',F:'Failed'};"
+            // per-status indexes, built once
+            + "var idx={ALL:new Int32Array(N)},b=[[],[],[],[]],i;"
+            + "for(i=0;i<N;i++){idx.ALL[i]=i;b[R[i][1]].push(i);}"
+            + "for(i=0;i<4;i++)idx[ST[i]]=Int32Array.from(b[i]);"
+            + "var filter='ALL',col=-1,dir=1,page=0,size=500,view=idx.ALL,H=35,OVER=10;"
+            + "var sc=document.getElementById('rp-scroll'),sp=document.getElementById('rp-spacer'),"
+            + "bd=document.getElementById('rp-body'),info=document.getElementById('rp-info');"
+            + "function esc(s){return String(s).replace(/[&<>'\"]/g,function(c){"
+            + "return{'&':'&amp;','<':'&lt;','>':'&gt;',\"'\":'&#39;','\"':'&quot;'}[c];});}"
+            + "function cmp(a,b){var x=R[a][col],y=R[b][col];return (x<y?-1:x>y?1:a-b)*dir;}"
+            + "function rebuild(){view=idx[filter];if(col>=0){view=view.slice().sort(cmp);}page=0;pages();}"
+            + "function span(){var n=size>0?size:view.length;var s=page*n;return[s,Math.min(view.length,s+n)];}"
+            + "function pages(){var p=span(),n=size>0?Math.max(1,Math.ceil(view.length/size)):1;"
+            + "info.textContent='Rows '+(view.length?p[0]+1:0)+'-'+p[1]+' of '+view.length+' | page '+(page+1)+' of '+n;"
+            + "sp.style.height=((p[1]-p[0])*H)+'px';sc.scrollTop=0;draw();}"
+            + "function lat(u){return u<0?'-':u<1e6?(u/1e3).toFixed(1)+' ms':(u/1e6).toFixed(2)+' s';}"
+            + "function base(r){return r[9]<0?'-':lat(r[10])+' / '+lat(r[11])+' (x'+(r[9]/1000).toFixed(2)+')';}"
+            + "function hooks(r){return r[13]<0?'-':'<span title=\"before '+lat(r[14])+', after '+lat(r[13]-r[14])+'\">'"
+            + "+lat(r[13])+' ('+Math.round(100*r[13]/Math.max(1,r[13]+r[10]))+'%)</span>';}"
+            + "function trend(t){var h='';for(var j=0;j<t.length;j++){var c=t.charAt(j);"
+            + "h+='<span title=\"'+TT[c]+'\">'+TI[c]+'</span>';}return h;}"
+            + "function draw(){var p=span(),first=Math.max(0,Math.floor(sc.scrollTop/H)-OVER),"
+            + "last=Math.min(p[1]-p[0],first+Math.ceil(sc.clientHeight/H)+2*OVER),h='';"
+            + "for(var k=first;k<last;k++){var r=R[view[p[0]+k]],s=ST[r[1]];"
+            + "h+='<tr class=\"'+s+'\"><td title=\"'+esc(r[0])+'\">'+esc(r[0])+'</td><td>'+s+'</td><td>'+esc(r[2]||'-')"
+            + "+'</td><td title=\"'+esc(r[3])+'\">'+esc(r[3]||'-')+'</td><td>'+(r[4]/10).toFixed(1)+'%</td><td>'+trend(r[5])+'</td>'"
+            + "+'<td>'+(r[12]<0?'-':(r[12]/10).toFixed(1)+'%')+'</td>'"
+            + "+'<td>'+lat(r[6])+'</td><td>'+lat(r[7])+'</td><td>'+lat(r[8])+'</td><td>'+base(r)+'</td><td>'+hooks(r)+'</td></tr>';}"
+            + "bd.style.transform='translateY('+(first*H)+'px)';bd.tBodies[0].innerHTML=h;}"
+            + "sc.addEventListener('scroll',function(){requestAnimationFrame(draw);});"
+            + "document.querySelectorAll('[data-filter]').forEach(function(btn){btn.addEventListener('click',function(){"
+            + "filter=btn.getAttribute('data-filter');document.querySelectorAll('[data-filter]').forEach(function(o){"
+            + "o.classList.toggle('active',o===btn);});rebuild();});});"
+            + "document.querySelectorAll('[data-col]').forEach(function(th){th.addEventListener('click',function(){"
+            + "var c=+th.getAttribute('data-col');dir=c===col?-dir:1;col=c;rebuild();});});"
+            + "document.getElementById('rp-prev').onclick=function(){if(page>0){page--;pages();}};"
+            + "document.getElementById('rp-next').onclick=function(){if(size>0&&(page+1)*size<view.length){page++;pages();}};"
+            + "document.getElementById('rp-size').onchange=function(){size=+this.value;page=0;pages();};"
+            + "rebuild();"
+            + "})();";
+}
@@ -1,62 +1,192 @@
 package hooks;
 
-import java.io.IOException;
+import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
+/**
+ * Builds target/final-report.html from the component reports without loading them into memory.
+ * - Fixed markup is encoded once into byte arrays
+ * - Component reports contribute only their body: the document shell is dropped and styles / scripts
+ *   repeated across reports are written once (see HtmlFragments); heap use stays constant however
+ *   large the reports are
+ * - final-report.html.gz is written in the same pass; .br and .zst copies are made with the brotli / zstd
+ *   command line tools when they are installed (-Dreport.precompress, default gzip,br,zstd), at fast levels
+ *   (brotli -q 5, zstd -3): top levels take minutes on a large report and the merge waits for them
+ * - Written to temp files and renamed, so a failed merge never leaves a truncated final report
+ */
 public class ReportMerger {
 
+    private static final byte[] HEAD = utf8("<!DOCTYPE html><html><head><meta charset='UTF-8'>"
+            + "<title>Final Combined Report</title>"
+            + "<style>"
+            + "body { font-family: Arial, sans-serif; margin: 30px; background-color: #fafafa; }"
+            + "h2 { background: #222; color: white; padding: 10px; border-radius: 5px; }"
+            + "hr { border: none; border-top: 2px solid #ccc; margin: 40px 0; }"
+            + "iframe { width: 100%; height: 800px; border: 1px solid #ccc; border-radius: 8px; }"
+            + "</style></head><body>"
+            + "<h1>📊 Unified Automation Report</h1>"
+            + "<p>Generated on: ");
+    private static final byte[] HEAD_END = utf8("</p><hr>");
+    private static final byte[] CUCUMBER = utf8("<h2>🐞 Cucumber Detailed Report</h2>"
+            + "<iframe src='cucumber-report.html'></iframe>");
+    private static final byte[] CUCUMBER_MISSING = utf8("<p>⚠️ Cucumber report not found.</p>");
+    private static final byte[] SUMMARY = utf8("<hr><h2>🕒 Execution Summary</h2><section>");
+    private static final byte[] SUMMARY_MISSING = utf8("<p>⚠️ Execution summary not found.</p>");
+    private static final byte[] TEST_REPORT = utf8("<hr><h2>📋 Custom Test Report</h2><section>");
+    private static final byte[] TEST_REPORT_MISSING = utf8("<p>⚠️ Test report not found in test-history folder.</p>");
+    private static final byte[] SECTION_END = utf8("</section>");
+    // per brotli / zstd run; a fast level finishes well inside it even for very large reports
+    private static final long TOOL_TIMEOUT_SECONDS = Long.getLong("report.precompress.timeoutSeconds", 60);
+    private static final byte[] FOOT = utf8("</body></html>");
+
     public static void mergeAllReports() throws IOException {
-        Path targetDir = Paths.get("target");
+        mergeAllReports(Paths.get("target"));
+    }
+
+    /** Same as mergeAllReports() for a build directory other than ./target. */
+    public static void mergeAllReports(Path targetDir) throws IOException {
         Path cucumber = targetDir.resolve("cucumber-report.html");
         Path summary = targetDir.resolve("execution-summary.html");
         Path testReport = targetDir.resolve("test-history/test-report.html");
         Path finalReport = targetDir.resolve("final-report.html");
+        Path tmp = targetDir.resolve("final-report.html.tmp");
 
-        StringBuilder merged = new StringBuilder();
+        Path gz = targetDir.resolve("final-report.html.gz");
+        Path gzTmp = targetDir.resolve("final-report.html.gz.tmp");
+        Set<String> formats = precompressFormats();
 
-        merged.append("<html><head><title>Final Combined Report</title>")
-              .append("<style>")
-              .append("body { font-family: Arial, sans-serif; margin: 30px; background-color: #fafafa; }")
-              .append("h2 { background: #222; color: white; padding: 10px; border-radius: 5px; }")
-              .append("hr { border: none; border-top: 2px solid #ccc; margin: 40px 0; }")
-              .append("iframe { width: 100%; height: 800px; border: 1px solid #ccc; border-radius: 8px; }")
-              .append("</style></head><body>")
-              .append("<h1>📊 Unified Automation Report</h1>")
-              .append("<p>Generated on: ").append(LocalDateTime.now().toString()).append("</p><hr>");
+        Files.createDirectories(targetDir);
+        HtmlFragments fragments = new HtmlFragments();
+        try (OutputStream file = Files.newOutputStream(tmp);
+             OutputStream zipped = formats.contains("gzip") ? gzip(Files.newOutputStream(gzTmp)) : OutputStream.nullOutputStream();
+             OutputStream out = new BufferedOutputStream(new TeeOutputStream(file, zipped), 64 * 1024)) {
+            out.write(HEAD);
+            out.write(utf8(LocalDateTime.now().toString()));
+            out.write(HEAD_END);
 
-        if (Files.exists(cucumber)) {
-            merged.append("<h2>🐞 Cucumber Detailed Report</h2>")
-                  .append("<iframe src='cucumber-report.html'></iframe>");
-        } else {
-            merged.append("<p>⚠️ Cucumber report not found.</p>");
-        }
+            out.write(Files.exists(cucumber) ? CUCUMBER : CUCUMBER_MISSING);
 
-        if (Files.exists(summary)) {
-            merged.append("<hr><h2>🕒 Execution Summary</h2>")
-                  .append(readFile(summary));
-        } else {
-            merged.append("<p>⚠️ Execution summary not found.</p>");
+            if (Files.exists(summary)) {
+                out.write(SUMMARY);
+                fragments.copyBody(summary, out);
+                out.write(SECTION_END);
+            } else {
+                out.write(SUMMARY_MISSING);
+            }
+
+            if (Files.exists(testReport)) {
+                out.write(TEST_REPORT);
+                fragments.copyBody(testReport, out);
+                out.write(SECTION_END);
+            } else {
+                out.write(TEST_REPORT_MISSING);
+            }
+
+            out.write(FOOT);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(tmp);
+            Files.deleteIfExists(gzTmp);
+            throw ex;
+        }
+        Files.move(tmp, finalReport, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (formats.contains("gzip")) {
+            Files.move(gzTmp, gz, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        if (formats.contains("br")) {
+            compressWithTool(finalReport, ".br", "brotli", "-q", "5", "-f", "-o");
+        }
+        if (formats.contains("zstd")) {
+            compressWithTool(finalReport, ".zst", "zstd", "-3", "-q", "-f", "-o");
         }
 
-        if (Files.exists(testReport)) {
-            merged.append("<hr><h2>📋 Custom Test Report</h2>")
-                  .append(readFile(testReport));
-        } else {
-            merged.append("<p>⚠️ Test report not found in test-history folder.</p>");
+        System.out.println("✅ Final combined report generated at: " + finalReport.toAbsolutePath());
+    }
+
+    private static Set<String> precompressFormats() {
+        Set<String> formats = new HashSet<>();
+        for (String f : System.getProperty("report.precompress", "gzip,br,zstd").split(",")) {
+            if (!f.trim().isEmpty()) formats.add(f.trim().toLowerCase(Locale.ROOT));
         }
+        return formats;
+    }
 
-        merged.append("</body></html>");
+    private static OutputStream gzip(OutputStream out) throws IOException {
+        return new GZIPOutputStream(out, 64 * 1024) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        };
+    }
 
-        Files.write(finalReport, merged.toString().getBytes(StandardCharsets.UTF_8),
-                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    // the JDK has no brotli / zstd encoder; use the CLI when present, otherwise serve gzip only
+    private static void compressWithTool(Path source, String suffix, String... command) {
+        Path target = source.resolveSibling(source.getFileName() + suffix);
+        List<String> cmd = new ArrayList<>(Arrays.asList(command));
+        cmd.add(target.toString());
+        cmd.add(source.toString());
+        try {
+            // never leave a copy from an older report next to the new one
+            Files.deleteIfExists(target);
+            Process p = new ProcessBuilder(cmd).redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+            if (!p.waitFor(TOOL_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                p.destroyForcibly().waitFor();
+                Files.deleteIfExists(target);
+                System.out.println("⚠️ " + command[0] + " timed out after " + TOOL_TIMEOUT_SECONDS + " s, no " + suffix + " copy written");
+            } else if (p.exitValue() != 0) {
+                System.out.println("⚠️ " + command[0] + " failed with exit code " + p.exitValue() + ", no " + suffix + " copy written");
+            }
+        } catch (IOException ex) {
+            System.out.println("ℹ️ " + command[0] + " not found, no " + suffix + " copy written (drop it from -Dreport.precompress to skip)");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-        System.out.println("✅ Final combined report generated at: " + finalReport.toAbsolutePath());
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
     }
 
-    private static String readFile(Path path) throws IOException {
-        byte[] bytes = Files.readAllBytes(path);
-        return new String(bytes, StandardCharsets.UTF_8);
+    private static final class TeeOutputStream extends OutputStream {
+        private final OutputStream a;
+        private final OutputStream b;
+
+        TeeOutputStream(OutputStream a, OutputStream b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            a.write(c);
+            b.write(c);
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            a.write(buf, off, len);
+            b.write(buf, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            a.flush();
+            b.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                a.close();
+            } finally {
+                b.close();
+            }
+        }
     }
 }
@@ -0,0 +1,450 @@
+package utils;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.DateTimeException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local (loopback only) HTTP server for browsing the run history without opening the multi-MB report files.
+ * - /                 small report shell: filters plus a paged table, fed by the JSON endpoints below
+ * - /api/summary      indexed runs and tests, history version
+ * - /api/tests        matching runs per test        } ?status=FAILED,FLAKY &since=14d &until= &feature= &test=
+ * - /api/reasons      matching runs per reason      }  &reason= &page=0 &size=100 (size at most MAX_PAGE_SIZE)
+ * - /api/runs         matching runs, newest first   }
+ * - /api/duration     duration percentiles of the matching runs
+ * - /reports/<name>   test-report.html, final-report.html, execution-summary.html, cucumber-report.html as written
+ *                     by the build (final-report.html.gz is sent as is when the client accepts gzip)
+ *
+ * Queries run on HistoryQuery. Every response carries an ETag: for the API it is derived from the history
+ * version and the query string, so a revalidation (If-None-Match) is answered 304 without running the query;
+ * for files from their size and modification time. Rendered API responses are kept in an LRU cache
+ * (-Dreport.server.cacheEntries, default 256) and gzipped once. The history is re-checked at most every
+ * -Dreport.server.refreshMs (default 1000 ms); new runs reopen the query, which replays only the new records.
+ *
+ *   java -cp ... -Dreport.server.port=8086 utils.ReportServer [historyDir=test-history] [targetDir=target]
+ */
+public final class ReportServer {
+
+    static final int MAX_PAGE_SIZE = 1000;
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int GZIP_MIN_BYTES = 1024;
+    private static final String[] REPORT_FILES = {"test-report.html", "final-report.html", "execution-summary.html", "cucumber-report.html"};
+
+    private final File historyDir;
+    private final File targetDir;
+    private final long refreshMs;
+    private final JsonFactory json = new JsonFactory();
+    private final Map<String, Cached> cache;
+
+    private volatile HistoryQuery query;
+    private volatile long checkedAt;
+
+    ReportServer(File historyDir, File targetDir) throws IOException {
+        this.historyDir = historyDir;
+        this.targetDir = targetDir;
+        this.refreshMs = Long.getLong("report.server.refreshMs", 1000);
+        int entries = Integer.getInteger("report.server.cacheEntries", 256);
+        this.cache = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                return size() > entries;
+            }
+        };
+        this.query = HistoryQuery.open(historyDir);
+        this.checkedAt = System.currentTimeMillis();
+    }
+
+    public static void main(String[] args) throws IOException {
+        File historyDir = new File(args.length > 0 ? args[0] : "test-history");
+        File targetDir = new File(args.length > 1 ? args[1] : "target");
+        int port = Integer.getInteger("report.server.port", 8086);
+        ReportServer server = new ReportServer(historyDir, targetDir);
+        HttpServer http = server.start(port);
+        System.out.println("✅ ReportServer: http://localhost:" + http.getAddress().getPort() + "/ ("
+                + server.query.size() + " runs indexed)");
+    }
+
+    /** Binds to the loopback interface only; port 0 picks a free port. */
+    HttpServer start(int port) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext("/", this::handle);
+        http.setExecutor(Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors())));
+        http.start();
+        return http;
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try {
+            if (!"GET".equals(ex.getRequestMethod()) && !"HEAD".equals(ex.getRequestMethod())) {
+                send(ex, 405, "text/plain; charset=utf-8", null, utf8("Method not allowed"));
+                return;
+            }
+            String path = ex.getRequestURI().getPath();
+            if (path.equals("/")) {
+                sendCached(ex, "shell", "text/html; charset=utf-8", SHELL_ETAG, () -> utf8(SHELL));
+            } else if (path.startsWith("/api/")) {
+                api(ex, path.substring("/api/".length()));
+            } else if (path.startsWith("/reports/")) {
+                report(ex, path.substring("/reports/".length()));
+            } else {
+                send(ex, 404, "text/plain; charset=utf-8", null, utf8("Not found"));
+            }
+        } catch (IllegalArgumentException | DateTimeException e) {
+            if (ex.getResponseCode() < 0) send(ex, 400, "text/plain; charset=utf-8", null, utf8(String.valueOf(e.getMessage())));
+        } catch (IOException | RuntimeException e) {
+            // a client that goes away mid-download is not worth a stack trace
+            if (ex.getResponseCode() >= 0) return;
+            e.printStackTrace();
+            send(ex, 500, "text/plain; charset=utf-8", null, utf8("Internal error"));
+        } finally {
+            ex.close();
+        }
+    }
+
+    // ---------------- JSON endpoints ----------------
+    private void api(HttpExchange ex, String endpoint) throws IOException {
+        if (!Arrays.asList("summary", "tests", "reasons", "runs", "duration").contains(endpoint)) {
+            send(ex, 404, "text/plain; charset=utf-8", null, utf8("Unknown endpoint " + endpoint));
+            return;
+        }
+        HistoryQuery q = current();
+        String raw = ex.getRequestURI().getRawQuery();
+        Map<String, String> params = params(raw);
+        // relative times ("14d") move with the clock, so their responses must not be revalidated forever
+        boolean relative = isRelative(params.get("since")) || isRelative(params.get("until"));
+        String etag = "\"" + Long.toHexString(fnv64(q.version() + "|" + endpoint + "?" + (raw == null ? "" : raw)))
+                + (relative ? "-" + System.currentTimeMillis() / 60_000 : "") + "\"";
+        sendCached(ex, endpoint + "?" + raw, "application/json", etag, () -> render(q, endpoint, params));
+    }
+
+    private byte[] render(HistoryQuery q, String endpoint, Map<String, String> params) throws IOException {
+        HistoryQuery.Filter filter = filter(params);
+        int page = Math.max(0, intParam(params, "page", 0));
+        int size = Math.min(MAX_PAGE_SIZE, Math.max(1, intParam(params, "size", DEFAULT_PAGE_SIZE)));
+        int from = (int) Math.min(Integer.MAX_VALUE, (long) page * size);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator g = json.createGenerator(out, JsonEncoding.UTF8)) {
+            g.writeStartObject();
+            g.writeStringField("version", q.version());
+            switch (endpoint) {
+                case "summary":
+                    g.writeNumberField("runs", q.size());
+                    g.writeNumberField("tests", q.countByTest(new HistoryQuery.Filter()).size());
+                    break;
+                case "tests": {
+                    List<HistoryQuery.TestCount> all = q.countByTest(filter);
+                    writePage(g, all.size(), page, size);
+                    for (HistoryQuery.TestCount c : all.subList(Math.min(from, all.size()), Math.min(from + size, all.size()))) {
+                        g.writeStartObject();
+                        g.writeStringField("test", c.test);
+                        g.writeNumberField("runs", c.runs);
+                        g.writeStringField("lastRun", c.lastRun);
+                        g.writeEndObject();
+                    }
+                    g.writeEndArray();
+                    break;
+                }
+                case "reasons": {
+                    List<HistoryQuery.ReasonCount> all = q.countByReason(filter);
+                    writePage(g, all.size(), page, size);
+                    for (HistoryQuery.ReasonCount c : all.subList(Math.min(from, all.size()), Math.min(from + size, all.size()))) {
+                        g.writeStartObject();
+                        g.writeStringField("reason", c.reason);
+                        g.writeNumberField("runs", c.runs);
+                        g.writeNumberField("tests", c.tests);
+                        g.writeEndObject();
+                    }
+                    g.writeEndArray();
+                    break;
+                }
+                case "runs": {
+                    writePage(g, q.count(filter), page, size);
+                    for (HistoryQuery.Run r : q.runs(filter, from, size)) {
+                        g.writeStartObject();
+                        g.writeStringField("test", r.test);
+                        g.writeStringField("timestamp", r.timestamp);
+                        g.writeStringField("status", r.status);
+                        if (r.durationMs >= 0) g.writeNumberField("durationMs", r.durationMs);
+                        if (r.reason != null) g.writeStringField("reason", r.reason);
+                        g.writeEndObject();
+                    }
+                    g.writeEndArray();
+                    break;
+                }
+                default: {
+                    HistoryQuery.DurationStats d = q.durations(filter);
+                    g.writeNumberField("runs", d.runs);
+                    g.writeNumberField("p50", d.p50);
+                    g.writeNumberField("p90", d.p90);
+                    g.writeNumberField("p95", d.p95);
+                    g.writeNumberField("p99", d.p99);
+                    g.writeNumberField("max", d.max);
+                }
+            }
+            g.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    // total / page / size, then opens the items array
+    private static void writePage(JsonGenerator g, int total, int page, int size) throws IOException {
+        g.writeNumberField("total", total);
+        g.writeNumberField("page", page);
+        g.writeNumberField("size", size);
+        g.writeArrayFieldStart("items");
+    }
+
+    private static HistoryQuery.Filter filter(Map<String, String> params) {
+        HistoryQuery.Filter filter = new HistoryQuery.Filter();
+        String v;
+        if ((v = params.get("status")) != null) filter.status(v.split(","));
+        if ((v = params.get("since")) != null) filter.since(HistoryQuery.parseTime(v));
+        if ((v = params.get("until")) != null) filter.until(HistoryQuery.parseTime(v));
+        if ((v = params.get("test")) != null) filter.test(v);
+        if ((v = params.get("feature")) != null) filter.feature(v);
+        if ((v = params.get("reason")) != null) filter.reason(v);
+        return filter;
+    }
+
+    // reopens the query when runs were added; the new index only replays the records appended since
+    private HistoryQuery current() throws IOException {
+        long now = System.currentTimeMillis();
+        if (now - checkedAt < refreshMs) return query;
+        synchronized (this) {
+            if (now - checkedAt >= refreshMs) {
+                if (!query.isCurrent()) {
+                    query = HistoryQuery.open(historyDir);
+                    synchronized (cache) {
+                        cache.clear();
+                    }
+                }
+                checkedAt = now;
+            }
+        }
+        return query;
+    }
+
+    // ---------------- report files ----------------
+    private void report(HttpExchange ex, String name) throws IOException {
+        if (!Arrays.asList(REPORT_FILES).contains(name)) {
+            send(ex, 404, "text/plain; charset=utf-8", null, utf8("Unknown report " + name));
+            return;
+        }
+        File file = new File("test-report.html".equals(name) ? historyDir : targetDir, name);
+        if (!file.isFile()) {
+            send(ex, 404, "text/plain; charset=utf-8", null, utf8(name + " has not been generated yet"));
+            return;
+        }
+        String etag = "\"" + Long.toHexString(file.length()) + "-" + Long.toHexString(file.lastModified()) + "\"";
+        Headers h = ex.getResponseHeaders();
+        h.set("ETag", etag);
+        h.set("Cache-Control", "no-cache");
+        h.set("Vary", "Accept-Encoding");
+        if (notModified(ex, etag)) return;
+
+        h.set("Content-Type", "text/html; charset=utf-8");
+        File gz = new File(file.getPath() + ".gz");
+        boolean gzip = acceptsGzip(ex);
+        boolean head = "HEAD".equals(ex.getRequestMethod());
+        if (gzip && gz.isFile() && gz.lastModified() >= file.lastModified()) {
+            h.set("Content-Encoding", "gzip");
+            ex.sendResponseHeaders(200, head ? -1 : gz.length());
+            if (!head) Files.copy(gz.toPath(), ex.getResponseBody());
+        } else if (gzip) {
+            h.set("Content-Encoding", "gzip");
+            ex.sendResponseHeaders(200, head ? -1 : 0);
+            if (!head) {
+                try (OutputStream out = new GZIPOutputStream(ex.getResponseBody(), 64 * 1024)) {
+                    Files.copy(file.toPath(), out);
+                }
+            }
+        } else {
+            ex.sendResponseHeaders(200, head ? -1 : file.length());
+            if (!head) Files.copy(file.toPath(), ex.getResponseBody());
+        }
+    }
+
+    // ---------------- response helpers ----------------
+    private void sendCached(HttpExchange ex, String key, String contentType, String etag, Renderer renderer) throws IOException {
+        Headers h = ex.getResponseHeaders();
+        h.set("ETag", etag);
+        h.set("Cache-Control", "no-cache");
+        h.set("Vary", "Accept-Encoding");
+        if (notModified(ex, etag)) return;
+
+        Cached c;
+        synchronized (cache) {
+            c = cache.get(key);
+        }
+        if (c == null || !c.etag.equals(etag)) {
+            byte[] body = renderer.render();
+            c = new Cached(etag, body, body.length >= GZIP_MIN_BYTES ? gzip(body) : null);
+            synchronized (cache) {
+                cache.put(key, c);
+            }
+        }
+        if (c.gzipped != null && acceptsGzip(ex)) {
+            h.set("Content-Encoding", "gzip");
+            send(ex, 200, contentType, etag, c.gzipped);
+        } else {
+            send(ex, 200, contentType, etag, c.body);
+        }
+    }
+
+    private static boolean notModified(HttpExchange ex, String etag) throws IOException {
+        String ifNoneMatch = ex.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String c = candidate.trim();
+            if (c.startsWith("W/")) c = c.substring(2);
+            if (c.equals(etag) || c.equals("*")) {
+                ex.sendResponseHeaders(304, -1);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void send(HttpExchange ex, int status, String contentType, String etag, byte[] body) throws IOException {
+        Headers h = ex.getResponseHeaders();
+        h.set("Content-Type", contentType);
+        if (etag != null) h.set("ETag", etag);
+        boolean head = "HEAD".equals(ex.getRequestMethod());
+        ex.sendResponseHeaders(status, head ? -1 : body.length);
+        if (!head) ex.getResponseBody().write(body);
+    }
+
+    private static boolean acceptsGzip(HttpExchange ex) {
+        String accept = ex.getRequestHeaders().getFirst("Accept-Encoding");
+        return accept != null && accept.contains("gzip");
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream z = new GZIPOutputStream(out)) {
+            z.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    private static Map<String, String> params(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) return params;
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0 || eq == pair.length() - 1) continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static int intParam(Map<String, String> params, String name, int defaultValue) {
+        String v = params.get(name);
+        if (v == null) return defaultValue;
+        try {
+            return Integer.parseInt(v);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number: " + v);
+        }
+    }
+
+    private static boolean isRelative(String time) {
+        return time != null && !time.isEmpty() && Character.isLetter(time.charAt(time.length() - 1));
+    }
+
+    private static long fnv64(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // ---------------- report shell ----------------
+    private static final String SHELL = "<!DOCTYPE html><html><head><meta charset='UTF-8'><title>Test History</title>"
+            + "<style>" + ReportAssets.CSS + "td{cursor:default}#rs-tests td:first-child{cursor:pointer;color:#00796b}"
+            + "form input,form select{margin-right:8px;padding:4px}</style></head><body>"
+            + "<h2>🧪 Test History</h2>"
+            + "<p id='rs-summary'></p>"
+            + "<p><a href='/reports/test-report.html'>Test report</a> · <a href='/reports/final-report.html'>Final report</a>"
+            + " · <a href='/reports/execution-summary.html'>Execution summary</a></p>"
+            + "<form id='rs-form'>"
+            + "<select name='status'><option value=''>Any status</option><option>FAILED,FLAKY</option><option>FLAKY</option>"
+            + "<option>FAILED</option><option>SUCCESSFUL</option></select>"
+            + "<input name='since' placeholder='since (14d, 2024-03-01)' size='18'>"
+            + "<input name='until' placeholder='until' size='12'>"
+            + "<input name='feature' placeholder='feature uri prefix' size='36'>"
+            + "<input name='reason' placeholder='reason contains' size='20'>"
+            + "<select name='view'><option value='tests'>Tests</option><option value='reasons'>Reasons</option>"
+            + "<option value='runs'>Runs</option></select>"
+            + "<button type='submit'>Query</button></form>"
+            + "<p id='rs-info'></p>"
+            + "<div class='rp-pager'><button id='rs-prev'>◀</button><button id='rs-next'>▶</button></div>"
+            + "<table id='rs-tests'><thead></thead><tbody></tbody></table>"
+            + "<script>(function(){"
+            + "var f=document.getElementById('rs-form'),page=0,size=100,total=0,extra={};"
+            + "var COLS={tests:[['test','Scenario'],['runs','Runs'],['lastRun','Last run']],"
+            + "reasons:[['reason','Reason'],['runs','Runs'],['tests','Tests']],"
+            + "runs:[['timestamp','Time'],['status','Status'],['durationMs','Duration ms'],['test','Scenario'],['reason','Reason']]};"
+            + "function esc(s){return s==null?'':String(s).replace(/[&<>'\"]/g,function(c){"
+            + "return{'&':'&amp;','<':'&lt;','>':'&gt;',\"'\":'&#39;','\"':'&quot;'}[c];});}"
+            + "function qs(){var p=new URLSearchParams(),d=new FormData(f);d.forEach(function(v,k){if(v&&k!='view')p.set(k,v);});"
+            + "for(var k in extra)p.set(k,extra[k]);p.set('page',page);p.set('size',size);return p.toString();}"
+            + "function load(){var view=f.view.value,t0=performance.now();"
+            + "fetch('/api/'+view+'?'+qs()).then(function(r){if(!r.ok)return r.text().then(function(t){throw new Error(t);});return r.json();})"
+            + ".then(function(d){total=d.total;var c=COLS[view];"
+            + "document.querySelector('#rs-tests thead').innerHTML='<tr>'+c.map(function(x){return'<th>'+x[1]+'</th>';}).join('')+'</tr>';"
+            + "document.querySelector('#rs-tests tbody').innerHTML=d.items.map(function(it){"
+            + "return'<tr'+(it.status?\" class='\"+(it.status=='SUCCESSFUL'?'PASSED':it.status)+\"'\":'')+'>'"
+            + "+c.map(function(x){return'<td title=\"'+esc(it[x[0]])+'\">'+esc(it[x[0]])+'</td>';}).join('')+'</tr>';}).join('');"
+            + "document.getElementById('rs-info').textContent=total+' rows, page '+(page+1)+' of '+Math.max(1,Math.ceil(total/size))"
+            + "+(extra.test?' · scenario '+extra.test:'')+' · '+Math.round(performance.now()-t0)+' ms';})"
+            + ".catch(function(e){document.getElementById('rs-info').textContent='⚠️ '+e.message;});}"
+            + "f.onsubmit=function(e){e.preventDefault();page=0;extra={};load();};"
+            + "document.getElementById('rs-prev').onclick=function(){if(page>0){page--;load();}};"
+            + "document.getElementById('rs-next').onclick=function(){if((page+1)*size<total){page++;load();}};"
+            // clicking a scenario lists its runs
+            + "document.querySelector('#rs-tests tbody').onclick=function(e){var td=e.target.closest('td');"
+            + "if(!td||f.view.value!='tests'||td.cellIndex!=0)return;extra={test:td.textContent};f.view.value='runs';page=0;load();};"
+            + "fetch('/api/summary').then(function(r){return r.json();}).then(function(d){"
+            + "document.getElementById('rs-summary').textContent=d.runs+' runs of '+d.tests+' scenarios indexed';});"
+            + "load();})();</script></body></html>";
+    private static final String SHELL_ETAG = "\"shell-" + Long.toHexString(fnv64(SHELL)) + "\"";
+
+    // ---------------- helper types ----------------
+    private interface Renderer {
+        byte[] render() throws IOException;
+    }
+
+    private static final class Cached {
+        final String etag;
+        final byte[] body;
+        final byte[] gzipped;
+
+        Cached(String etag, byte[] body, byte[] gzipped) {
+            this.etag = etag;
+            this.body = body;
+            this.gzipped = gzipped;
+        }
+    }
+}
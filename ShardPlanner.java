@@ -0,0 +1,493 @@
+package utils;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Splits the suite into N shards of about equal run time, from the durations FlakyTestAnalyzer keeps in the history.
+ * - Estimate per scenario: the EWMA of its passed runs (HistoryIndex baseline), else the mean of all its runs, else
+ *   its duration in the reference report, else the median estimate; plus its before / after hook time, taken the
+ *   same way (HistoryIndex hook average, else the reference report)
+ * - Affinity: scenarios of a feature tagged @affinity stay on one shard; features tagged @affinity-<name> share one
+ *   shard with every other feature of that name (prefix via -Dshard.affinityTag). Tags come from the reference
+ *   report, else from the newest run in the history
+ * - Groups are placed longest first on the least loaded shard (LPT), then moves and swaps between the longest and
+ *   the shortest shard tighten the result while they shrink the gap
+ * - Writes shard-<i>.txt in rerun format (uri:line:line, one feature per line) and plan.json to the output dir
+ * - After the run, "actual" compares each shard's scenario + hook time in the reports with the prediction and
+ *   appends the result to test-history/shard-plans.jsonl; "plan" scales its makespan by the recent actual/predicted
+ *   ratio, and every analyzed run feeds new durations into the estimates
+ *
+ *   java -cp ... utils.ShardPlanner plan --shards 4 [--report target/cucumber.json] [--history test-history] [--out target/shards]
+ *   mvn test -Dcucumber.features=@target/shards/shard-1.txt     (one per agent)
+ *   java -cp ... utils.ShardPlanner actual [--report "target/shards/*.json"] [--out target/shards]
+ */
+public final class ShardPlanner {
+
+    static final String PLAN_FILE = "plan.json";
+    static final String ACCURACY_FILE = "shard-plans.jsonl";
+    static final double DEFAULT_ESTIMATE_MS = 1000;
+    static final int MAX_IMPROVE_STEPS = 10_000;
+    static final int CALIBRATION_RUNS = 10;
+
+    private ShardPlanner() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0 || !("plan".equals(args[0]) || "actual".equals(args[0]))) {
+            System.out.println("Usage: ShardPlanner plan --shards N [--report target/cucumber.json] [--history test-history] [--out target/shards]");
+            System.out.println("       ShardPlanner actual [--report target/cucumber.json] [--history test-history] [--out target/shards]");
+            return;
+        }
+        int shards = 0;
+        String report = System.getProperty("cucumber.json.path", "target/cucumber.json");
+        File historyDir = new File("test-history");
+        File outDir = new File("target/shards");
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--shards": shards = Integer.parseInt(value); break;
+                case "--report": report = value; break;
+                case "--history": historyDir = new File(value); break;
+                case "--out": outDir = new File(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        ObjectMapper mapper = new ObjectMapper();
+        CucumberReportSet reports = CucumberReportSet.resolve(report);
+        Map<String, FlakyTestAnalyzer.ScenarioResult> results = reports.isEmpty()
+                ? Collections.emptyMap() : reports.parse(mapper.getFactory());
+        if ("plan".equals(args[0])) {
+            if (shards < 1) throw new IllegalArgumentException("--shards must be at least 1");
+            Plan plan = plan(results, loadHistory(mapper, historyDir), shards, System.getProperty("shard.affinityTag", "@affinity"));
+            if (plan.scenarios == 0) {
+                System.out.println("⚠️ ShardPlanner: no scenarios in " + report + " or in the history under " + historyDir);
+                return;
+            }
+            applyCalibration(mapper, plan, new File(historyDir, ACCURACY_FILE));
+            write(mapper, plan, outDir);
+            printPlan(plan, outDir);
+        } else {
+            if (reports.isEmpty()) {
+                System.out.println("⚠️ ShardPlanner: no Cucumber report found at " + report);
+                return;
+            }
+            Plan plan = mapper.readerFor(Plan.class)
+                    .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                    .readValue(new File(outDir, PLAN_FILE));
+            Accuracy accuracy = compare(plan, results);
+            printAccuracy(plan, accuracy);
+            appendAccuracy(mapper, historyDir, accuracy);
+        }
+    }
+
+    // ---------------- planning ----------------
+    /** Read-only view of the history index; null when there is no history yet. */
+    private static HistoryIndex loadHistory(ObjectMapper mapper, File historyDir) throws IOException {
+        if (!historyDir.isDirectory()) return null;
+        HistoryLock lock = HistoryLock.acquire(new File(historyDir, ".history.lock"));
+        try (lock) {
+            HistoryStore store = HistoryStore.open(historyDir, mapper);
+            return HistoryIndex.load(mapper, new File(historyDir, "history-index.json"), store);
+        }
+    }
+
+    /**
+     * Plans shards for the scenarios of the reference report (or, without one, every test in the history).
+     * Scenarios whose key has no line (no uri / line in the report) cannot be selected by a rerun file and are skipped.
+     */
+    static Plan plan(Map<String, FlakyTestAnalyzer.ScenarioResult> results, HistoryIndex history, int shards, String affinityTag) {
+        Set<String> keys = new TreeSet<>(results.keySet());
+        if (keys.isEmpty() && history != null) keys.addAll(history.tests.keySet());
+
+        // estimates; unknown scenarios get the median of the known ones
+        Map<String, Double> estimates = new LinkedHashMap<>();
+        List<String> unknown = new ArrayList<>();
+        int skipped = 0;
+        for (String key : keys) {
+            if (lineOf(key) < 0) {
+                skipped++;
+                continue;
+            }
+            double ms = historicalMs(history, key);
+            FlakyTestAnalyzer.ScenarioResult r = results.get(key);
+            if (ms < 0 && r != null) ms = r.durationMs;
+            if (ms < 0) {
+                unknown.add(key);
+                continue;
+            }
+            double hookMs = historicalHookMs(history, key);
+            if (hookMs < 0 && r != null) hookMs = (r.setupNanos + r.teardownNanos) / 1_000_000.0;
+            estimates.put(key, ms + Math.max(0, hookMs));
+        }
+        double fallback = median(estimates.values());
+        for (String key : unknown) estimates.put(key, fallback);
+        if (skipped > 0) {
+            System.out.println("⚠️ ShardPlanner: " + skipped + " scenario(s) without uri:line cannot be sharded and were skipped");
+        }
+
+        // affinity groups
+        Map<String, Group> groups = new TreeMap<>();
+        for (Map.Entry<String, Double> e : estimates.entrySet()) {
+            String key = e.getKey();
+            FlakyTestAnalyzer.ScenarioResult r = results.get(key);
+            String group = affinityGroup(uriOf(key), r != null ? r.featureTags : historicalTags(history, key), affinityTag);
+            groups.computeIfAbsent(group != null ? group : key, Group::new).add(key, e.getValue());
+        }
+
+        Plan plan = new Plan();
+        plan.created = LocalDateTime.now().toString();
+        plan.scenarios = estimates.size();
+        plan.groups = groups.size();
+        plan.shards = assign(new ArrayList<>(groups.values()), Math.min(shards, Math.max(1, groups.size())));
+        for (Shard s : plan.shards) {
+            Collections.sort(s.scenarios);
+            plan.totalMs += s.predictedMs;
+            plan.predictedMakespanMs = Math.max(plan.predictedMakespanMs, s.predictedMs);
+        }
+        plan.expectedMakespanMs = plan.predictedMakespanMs;
+        return plan;
+    }
+
+    private static double historicalMs(HistoryIndex history, String key) {
+        HistoryIndex.Entry e = history == null ? null : history.get(key);
+        if (e == null) return -1;
+        if (e.baselineRuns > 0) return e.baselineMean;
+        return e.durationCount > 0 ? e.durationMean : -1;
+    }
+
+    // without a report, the feature tags of the test's newest recorded run
+    private static List<String> historicalTags(HistoryIndex history, String key) {
+        HistoryIndex.Entry e = history == null ? null : history.get(key);
+        return e == null || e.featureTags == null ? Collections.emptyList() : Arrays.asList(e.featureTags.split(" "));
+    }
+
+    private static double historicalHookMs(HistoryIndex history, String key) {
+        HistoryIndex.Entry e = history == null ? null : history.get(key);
+        return e == null || e.hookRuns == 0 ? -1 : e.hookMean;
+    }
+
+    /** "feature:<uri>" for a bare affinity tag, "tag:<name>" for affinityTag-<name>, null when not tagged. */
+    static String affinityGroup(String uri, List<String> featureTags, String affinityTag) {
+        for (String tag : featureTags) {
+            if (tag.equals(affinityTag)) return "feature:" + uri;
+            if (tag.length() > affinityTag.length() + 1 && tag.startsWith(affinityTag)
+                    && (tag.charAt(affinityTag.length()) == '-' || tag.charAt(affinityTag.length()) == '=')) {
+                return "tag:" + tag.substring(affinityTag.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    /** LPT placement, then moves / swaps between the longest and the shortest shard while they narrow the gap. */
+    static List<Shard> assign(List<Group> groups, int count) {
+        groups.sort((a, b) -> a.ms != b.ms ? Double.compare(b.ms, a.ms) : a.name.compareTo(b.name));
+        List<Shard> shards = new ArrayList<>(count);
+        PriorityQueue<Shard> byLoad = new PriorityQueue<>((a, b) ->
+                a.predictedMs != b.predictedMs ? Double.compare(a.predictedMs, b.predictedMs) : Integer.compare(a.index, b.index));
+        for (int i = 0; i < count; i++) {
+            Shard s = new Shard(i + 1);
+            shards.add(s);
+            byLoad.add(s);
+        }
+        for (Group g : groups) {
+            Shard s = byLoad.poll();
+            s.add(g);
+            byLoad.add(s);
+        }
+
+        // each step moves 0 < delta < gap from the longest to the shortest shard, so the sum of squared loads
+        // strictly drops and the loop ends; the delta closest to gap / 2 evens the pair out best
+        for (int step = 0; step < MAX_IMPROVE_STEPS && count > 1; step++) {
+            Shard max = shards.get(0), min = shards.get(0);
+            for (Shard s : shards) {
+                if (s.predictedMs > max.predictedMs) max = s;
+                if (s.predictedMs < min.predictedMs) min = s;
+            }
+            double gap = max.predictedMs - min.predictedMs;
+            double best = gap / 2;
+            double bestDistance = Double.MAX_VALUE;
+            Group moveOut = null, moveIn = null;
+            for (Group a : max.groups) {
+                if (a.ms < gap && Math.abs(a.ms - best) < bestDistance) {
+                    bestDistance = Math.abs(a.ms - best);
+                    moveOut = a;
+                    moveIn = null;
+                }
+                for (Group b : min.groups) {
+                    double delta = a.ms - b.ms;
+                    if (delta > 0 && delta < gap && Math.abs(delta - best) < bestDistance) {
+                        bestDistance = Math.abs(delta - best);
+                        moveOut = a;
+                        moveIn = b;
+                    }
+                }
+            }
+            // below a millisecond the gain is noise in the estimates
+            if (moveOut == null || gap - 2 * bestDistance < 1) break;
+            max.remove(moveOut);
+            min.add(moveOut);
+            if (moveIn != null) {
+                min.remove(moveIn);
+                max.add(moveIn);
+            }
+        }
+        return shards;
+    }
+
+    private static double median(Collection<Double> values) {
+        if (values.isEmpty()) return DEFAULT_ESTIMATE_MS;
+        double[] sorted = values.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+        return sorted[sorted.length / 2];
+    }
+
+    /** Scales the expected makespan by the mean actual / predicted ratio of the last CALIBRATION_RUNS plans. */
+    private static void applyCalibration(ObjectMapper mapper, Plan plan, File accuracyFile) {
+        List<Double> ratios = new ArrayList<>();
+        for (Accuracy a : readAccuracy(mapper, accuracyFile)) {
+            if (a.predictedMakespanMs > 0 && a.actualMakespanMs > 0) ratios.add(a.actualMakespanMs / a.predictedMakespanMs);
+        }
+        List<Double> recent = ratios.subList(Math.max(0, ratios.size() - CALIBRATION_RUNS), ratios.size());
+        if (recent.isEmpty()) return;
+        double sum = 0;
+        for (double r : recent) sum += r;
+        plan.calibration = sum / recent.size();
+        plan.calibrationRuns = recent.size();
+        plan.expectedMakespanMs = plan.predictedMakespanMs * plan.calibration;
+    }
+
+    // ---------------- output ----------------
+    private static void write(ObjectMapper mapper, Plan plan, File outDir) throws IOException {
+        if (!outDir.exists()) outDir.mkdirs();
+        File[] old = outDir.listFiles((d, name) -> name.startsWith("shard-") && name.endsWith(".txt"));
+        if (old != null) {
+            for (File f : old) Files.deleteIfExists(f.toPath());
+        }
+        for (Shard s : plan.shards) {
+            Files.write(new File(outDir, "shard-" + s.index + ".txt").toPath(), rerunLines(s.scenarios), StandardCharsets.UTF_8);
+        }
+        File file = new File(outDir, PLAN_FILE);
+        File tmp = new File(outDir, PLAN_FILE + "." + ProcessHandle.current().pid() + ".tmp");
+        mapper.writerWithDefaultPrettyPrinter().writeValue(tmp, plan);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Cucumber rerun format: one line per feature, "uri:line:line...", scenarios in file order. */
+    static List<String> rerunLines(List<String> scenarios) {
+        Map<String, List<Integer>> byUri = new TreeMap<>();
+        for (String key : scenarios) byUri.computeIfAbsent(uriOf(key), k -> new ArrayList<>()).add(lineOf(key));
+        List<String> lines = new ArrayList<>(byUri.size());
+        for (Map.Entry<String, List<Integer>> e : byUri.entrySet()) {
+            StringBuilder sb = new StringBuilder(e.getKey());
+            List<Integer> featureLines = e.getValue();
+            Collections.sort(featureLines);
+            for (int line : featureLines) sb.append(':').append(line);
+            lines.add(sb.toString());
+        }
+        return lines;
+    }
+
+    private static void printPlan(Plan plan, File outDir) {
+        System.out.println("🧩 Shard plan: " + plan.scenarios + " scenarios in " + plan.groups + " groups across "
+                + plan.shards.size() + " shards -> " + outDir.getPath());
+        for (Shard s : plan.shards) {
+            System.out.printf("   shard-%d: %5d scenarios, %s predicted%n", s.index, s.scenarios.size(), formatMs(s.predictedMs));
+        }
+        double ideal = plan.totalMs / plan.shards.size();
+        System.out.printf("   makespan %s predicted (ideal %s, +%.1f%%)%n", formatMs(plan.predictedMakespanMs), formatMs(ideal),
+                ideal > 0 ? (plan.predictedMakespanMs / ideal - 1) * 100 : 0.0);
+        if (plan.calibrationRuns > 0) {
+            System.out.printf("   expected %s after calibration (actual/predicted x%.2f over the last %d run(s))%n",
+                    formatMs(plan.expectedMakespanMs), plan.calibration, plan.calibrationRuns);
+        }
+        System.out.println("   run each shard with -Dcucumber.features=@" + new File(outDir, "shard-<i>.txt").getPath());
+    }
+
+    // ---------------- predicted vs actual ----------------
+    /** Actual time per planned shard: scenario + hook durations of the reports, attributed via the plan. */
+    static Accuracy compare(Plan plan, Map<String, FlakyTestAnalyzer.ScenarioResult> results) {
+        Map<String, Integer> shardOf = new HashMap<>();
+        for (int i = 0; i < plan.shards.size(); i++) {
+            for (String key : plan.shards.get(i).scenarios) shardOf.put(key, i);
+        }
+        Accuracy a = new Accuracy();
+        a.timestamp = LocalDateTime.now().toString();
+        a.planCreated = plan.created;
+        a.shards = plan.shards.size();
+        a.predictedMakespanMs = plan.predictedMakespanMs;
+        a.predictedMs = new double[a.shards];
+        a.actualMs = new double[a.shards];
+        for (int i = 0; i < a.shards; i++) a.predictedMs[i] = plan.shards.get(i).predictedMs;
+        Set<String> seen = new HashSet<>();
+        for (Map.Entry<String, FlakyTestAnalyzer.ScenarioResult> e : results.entrySet()) {
+            Integer shard = shardOf.get(e.getKey());
+            FlakyTestAnalyzer.ScenarioResult r = e.getValue();
+            double ms = (r.durationNanos + r.setupNanos + r.teardownNanos) / 1_000_000.0;
+            if (shard == null) {
+                a.unplanned++;
+                a.unplannedMs += ms;
+            } else {
+                a.actualMs[shard] += ms;
+                seen.add(e.getKey());
+            }
+        }
+        a.missing = shardOf.size() - seen.size();
+        for (double ms : a.actualMs) a.actualMakespanMs = Math.max(a.actualMakespanMs, ms);
+        return a;
+    }
+
+    private static void printAccuracy(Plan plan, Accuracy a) {
+        System.out.println("🧩 Shard plan vs actual (" + plan.created + ")");
+        double absError = 0;
+        for (int i = 0; i < a.shards; i++) {
+            System.out.printf("   shard-%d: %s predicted, %s actual (%+.1f%%)%n", plan.shards.get(i).index,
+                    formatMs(a.predictedMs[i]), formatMs(a.actualMs[i]), percent(a.actualMs[i], a.predictedMs[i]));
+            absError += Math.abs(a.actualMs[i] - a.predictedMs[i]);
+        }
+        System.out.printf("   makespan %s predicted, %s actual (%+.1f%%), mean shard error %s%n",
+                formatMs(a.predictedMakespanMs), formatMs(a.actualMakespanMs),
+                percent(a.actualMakespanMs, a.predictedMakespanMs), formatMs(absError / Math.max(1, a.shards)));
+        if (a.missing > 0) System.out.println("⚠️ " + a.missing + " planned scenario(s) are not in the reports");
+        if (a.unplanned > 0) {
+            System.out.println("⚠️ " + a.unplanned + " scenario(s) ran outside the plan (" + formatMs(a.unplannedMs) + ")");
+        }
+    }
+
+    private static void appendAccuracy(ObjectMapper mapper, File historyDir, Accuracy a) throws IOException {
+        if (!historyDir.exists()) historyDir.mkdirs();
+        HistoryLock lock = HistoryLock.acquire(new File(historyDir, ".history.lock"));
+        try (lock) {
+            Files.write(new File(historyDir, ACCURACY_FILE).toPath(),
+                    (mapper.writeValueAsString(a) + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    private static List<Accuracy> readAccuracy(ObjectMapper mapper, File file) {
+        List<Accuracy> list = new ArrayList<>();
+        if (!file.exists()) return list;
+        try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            for (String line; (line = in.readLine()) != null; ) {
+                if (line.isBlank()) continue;
+                try {
+                    list.add(mapper.readerFor(Accuracy.class)
+                            .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                            .readValue(line));
+                } catch (IOException ex) {
+                    // a torn last line from an interrupted append: skip it
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println("⚠️ ShardPlanner: " + file.getName() + " unreadable, planning without calibration");
+        }
+        return list;
+    }
+
+    // ---------------- helpers ----------------
+    private static int lastColon(String key) {
+        int colon = key.lastIndexOf(':');
+        if (colon < 0 || colon == key.length() - 1) return -1;
+        for (int i = colon + 1; i < key.length(); i++) {
+            if (!Character.isDigit(key.charAt(i))) return -1;
+        }
+        return colon;
+    }
+
+    static String uriOf(String key) {
+        int colon = lastColon(key);
+        return colon < 0 ? key : key.substring(0, colon);
+    }
+
+    static int lineOf(String key) {
+        int colon = lastColon(key);
+        return colon < 0 ? -1 : Integer.parseInt(key.substring(colon + 1));
+    }
+
+    private static double percent(double actual, double predicted) {
+        return predicted > 0 ? (actual / predicted - 1) * 100 : 0;
+    }
+
+    private static String formatMs(double ms) {
+        return ms >= 60_000 ? String.format("%.1f min", ms / 60_000) : String.format("%.1f s", ms / 1000);
+    }
+
+    // ---------------- helper classes ----------------
+    /** Scenarios that must run on the same shard (a single scenario without affinity). */
+    static final class Group {
+        final String name;
+        final List<String> scenarios = new ArrayList<>(1);
+        double ms;
+
+        Group(String name) {
+            this.name = name;
+        }
+
+        void add(String key, double estimateMs) {
+            scenarios.add(key);
+            ms += estimateMs;
+        }
+    }
+
+    static class Shard {
+        public int index;
+        public double predictedMs;
+        public List<String> scenarios = new ArrayList<>();
+        final List<Group> groups = new ArrayList<>();
+
+        Shard() {
+        }
+
+        Shard(int index) {
+            this.index = index;
+        }
+
+        void add(Group g) {
+            groups.add(g);
+            scenarios.addAll(g.scenarios);
+            predictedMs += g.ms;
+        }
+
+        void remove(Group g) {
+            groups.remove(g);
+            scenarios.removeAll(new HashSet<>(g.scenarios));
+            predictedMs -= g.ms;
+        }
+    }
+
+    /** plan.json */
+    static class Plan {
+        public String created;
+        public int scenarios;
+        public int groups;
+        public double totalMs;
+        public double predictedMakespanMs;
+        // predicted makespan x calibration (mean actual / predicted of recent runs; 1 without accuracy records)
+        public double expectedMakespanMs;
+        public double calibration = 1;
+        public int calibrationRuns;
+        public List<Shard> shards = new ArrayList<>();
+    }
+
+    /** One line of shard-plans.jsonl. */
+    static class Accuracy {
+        public String timestamp;
+        public String planCreated;
+        public int shards;
+        public double predictedMakespanMs;
+        public double actualMakespanMs;
+        public double[] predictedMs;
+        public double[] actualMs;
+        public int missing;
+        public int unplanned;
+        public double unplannedMs;
+    }
+}
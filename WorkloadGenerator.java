@@ -0,0 +1,345 @@
+package utils;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.Random;
+
+/**
+ * Writes synthetic inputs for sizing runs: a Cucumber JSON report in the shape CucumberJsonParser reads
+ * (features with uri / elements, before / after hooks, steps with result.status / duration / error_message,
+ * optional screenshot embeddings) and a matching test-history.json with the runs before it.
+ *
+ * Deterministic: every scenario and every run of it draws from its own Random derived from the seed, so the
+ * output does not depend on sizes or write order and the report is simply the run after the history.
+ * Output is streamed with JsonGenerator, so heap use does not grow with the file (multi-GB is fine).
+ *
+ * Scenario mix: workload.failRate of scenarios always fail, workload.flakeRate fail in
+ * workload.flakeFailProbability of their runs, the rest pass. Each scenario has a log-normal base duration
+ * (median workload.durationMedianMs, sigma workload.durationSigma) and every run varies around it by
+ * workload.durationJitter (also log-normal).
+ *
+ *   java -cp ... utils.WorkloadGenerator target/workload
+ *     -Dworkload.seed=1 -Dworkload.features=100 -Dworkload.scenariosPerFeature=50 -Dworkload.steps=8
+ *     -Dworkload.historyRuns=30 -Dworkload.failRate=0.02 -Dworkload.flakeRate=0.05
+ *     -Dworkload.flakeFailProbability=0.3 -Dworkload.durationMedianMs=2000 -Dworkload.durationSigma=1.0
+ *     -Dworkload.durationJitter=0.15 -Dworkload.embedBytes=0 -Dworkload.start=2024-01-01T00:00
+ * writes cucumber.json and test-history.json into the given directory (default target/workload).
+ */
+public final class WorkloadGenerator {
+
+    private static final String[] ERRORS = {
+            "java.lang.AssertionError: expected status 200 but was %d",
+            "org.openqa.selenium.TimeoutException: Expected condition failed: waiting for visibility of element "
+                    + "located by By.id: meter-%d (tried for 30 second(s) with 500 milliseconds interval)",
+            "java.net.SocketTimeoutException: Read timed out after %d ms",
+            "java.lang.IllegalStateException: EventHub message %d not received within 60 seconds",
+            "java.lang.NullPointerException: Cannot invoke \"String.trim()\" because \"reading%d\" is null",
+    };
+    private static final String[] VERBS = {"sends", "receives", "validates", "stores", "reads"};
+    private static final String[] NOUNS = {"meter reading", "EventHub message", "tariff", "consumption report", "alarm"};
+
+    final long seed;
+    final int features;
+    final int scenariosPerFeature;
+    final int steps;
+    final int historyRuns;
+    final double failRate;
+    final double flakeRate;
+    final double flakeFailProbability;
+    final long durationMedianMs;
+    final double durationSigma;
+    final double durationJitter;
+    final int embedBytes;
+    final LocalDateTime start;
+
+    WorkloadGenerator(long seed, int features, int scenariosPerFeature, int steps, int historyRuns,
+                      double failRate, double flakeRate, double flakeFailProbability,
+                      long durationMedianMs, double durationSigma, double durationJitter,
+                      int embedBytes, LocalDateTime start) {
+        this.seed = seed;
+        this.features = features;
+        this.scenariosPerFeature = scenariosPerFeature;
+        this.steps = Math.max(1, steps);
+        this.historyRuns = historyRuns;
+        this.failRate = failRate;
+        this.flakeRate = flakeRate;
+        this.flakeFailProbability = flakeFailProbability;
+        this.durationMedianMs = durationMedianMs;
+        this.durationSigma = durationSigma;
+        this.durationJitter = durationJitter;
+        this.embedBytes = embedBytes;
+        this.start = start;
+    }
+
+    static WorkloadGenerator fromSystemProperties() {
+        return new WorkloadGenerator(
+                Long.getLong("workload.seed", 1),
+                Integer.getInteger("workload.features", 100),
+                Integer.getInteger("workload.scenariosPerFeature", 50),
+                Integer.getInteger("workload.steps", 8),
+                Integer.getInteger("workload.historyRuns", 30),
+                Double.parseDouble(System.getProperty("workload.failRate", "0.02")),
+                Double.parseDouble(System.getProperty("workload.flakeRate", "0.05")),
+                Double.parseDouble(System.getProperty("workload.flakeFailProbability", "0.3")),
+                Long.getLong("workload.durationMedianMs", 2000),
+                Double.parseDouble(System.getProperty("workload.durationSigma", "1.0")),
+                Double.parseDouble(System.getProperty("workload.durationJitter", "0.15")),
+                Integer.getInteger("workload.embedBytes", 0),
+                LocalDateTime.parse(System.getProperty("workload.start", "2024-01-01T00:00")));
+    }
+
+    public static void main(String[] args) throws IOException {
+        File dir = new File(args.length > 0 ? args[0] : "target/workload");
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir.getAbsolutePath());
+        WorkloadGenerator generator = fromSystemProperties();
+        File json = new File(dir, "cucumber.json");
+        File history = new File(dir, "test-history.json");
+        generator.writeCucumberJson(json);
+        generator.writeHistory(history);
+        System.out.println("✅ WorkloadGenerator: " + (long) generator.features * generator.scenariosPerFeature
+                + " scenarios, " + generator.historyRuns + " history runs written to " + dir.getAbsolutePath());
+    }
+
+    /** Cucumber JSON for the run after the history (run index historyRuns). */
+    void writeCucumberJson(File file) throws IOException {
+        try (JsonGenerator g = new JsonFactory().createGenerator(file, JsonEncoding.UTF8)) {
+            g.writeStartArray();
+            for (int f = 0; f < features; f++) {
+                g.writeStartObject();
+                g.writeStringField("id", "feature-" + f);
+                g.writeStringField("keyword", "Feature");
+                g.writeStringField("name", "Generated feature " + f);
+                g.writeStringField("description", "");
+                g.writeNumberField("line", 1);
+                g.writeStringField("uri", uri(f));
+                g.writeArrayFieldStart("elements");
+                for (int s = 0; s < scenariosPerFeature; s++) {
+                    writeScenario(g, f, s);
+                }
+                g.writeEndArray();
+                g.writeEndObject();
+            }
+            g.writeEndArray();
+        }
+    }
+
+    /** test-history.json ({"tests": {key: [entry, ...]}}) with historyRuns runs of every scenario, oldest first. */
+    void writeHistory(File file) throws IOException {
+        try (JsonGenerator g = new JsonFactory().createGenerator(file, JsonEncoding.UTF8)) {
+            g.writeStartObject();
+            g.writeObjectFieldStart("tests");
+            for (int f = 0; f < features; f++) {
+                for (int s = 0; s < scenariosPerFeature; s++) {
+                    Profile p = profile(f, s);
+                    g.writeArrayFieldStart(key(f, s));
+                    long passBits = 0;
+                    for (int run = 0; run < historyRuns; run++) {
+                        Run r = run(p, f, s, run);
+                        // same classification FlakyTestAnalyzer.recordRun applies
+                        boolean flaky = !r.passed && passBits != 0;
+                        g.writeStartObject();
+                        g.writeStringField("timestamp", start.plusHours(run).toString());
+                        g.writeStringField("status", r.passed ? "SUCCESSFUL" : flaky ? "FLAKY" : "FAILED");
+                        g.writeStringField("reason", r.passed ? "Passed" : r.error);
+                        g.writeNumberField("durationMs", r.durationNanos / 1_000_000);
+                        g.writeStringField(HistoryStore.DURATION_UNIT, HistoryStore.DURATION_UNIT_MS);
+                        g.writeBooleanField("flakyPattern", flaky);
+                        g.writeEndObject();
+                        passBits = passBits << 1 | (r.passed ? 1 : 0);
+                    }
+                    g.writeEndArray();
+                }
+            }
+            g.writeEndObject();
+            g.writeEndObject();
+        }
+    }
+
+    static String uri(int feature) {
+        return "classpath:features/generated/feature" + feature + ".feature";
+    }
+
+    // FlakyTestAnalyzer's history key: uri + ":" + scenario line
+    String key(int feature, int scenario) {
+        return uri(feature) + ":" + line(scenario);
+    }
+
+    private int line(int scenario) {
+        return 3 + scenario * (steps + 2);
+    }
+
+    private void writeScenario(JsonGenerator g, int f, int s) throws IOException {
+        Profile p = profile(f, s);
+        Run r = run(p, f, s, historyRuns);
+        g.writeStartObject();
+        g.writeStringField("id", "feature-" + f + ";scenario-" + s);
+        g.writeStringField("keyword", "Scenario");
+        g.writeStringField("name", "Generated scenario " + s);
+        g.writeStringField("description", "");
+        g.writeNumberField("line", line(s));
+        g.writeStringField("type", "scenario");
+        g.writeArrayFieldStart("tags");
+        g.writeEndArray();
+
+        g.writeArrayFieldStart("before");
+        writeHook(g, "hooks.Hooks.setUp(io.cucumber.java.Scenario)", r.random);
+        g.writeEndArray();
+
+        g.writeArrayFieldStart("steps");
+        long remaining = r.durationNanos;
+        for (int st = 0; st < steps; st++) {
+            g.writeStartObject();
+            g.writeStringField("keyword", st == 0 ? "Given " : st == steps - 1 ? "Then " : "And ");
+            g.writeStringField("name", stepText(p, st));
+            g.writeNumberField("line", line(s) + 1 + st);
+            g.writeObjectFieldStart("match");
+            g.writeStringField("location", "steps.GeneratedSteps.step" + (p.stepBase + st) % 40 + "(java.lang.String)");
+            g.writeEndObject();
+            g.writeObjectFieldStart("result");
+            if (st > r.failedStep) {
+                g.writeStringField("status", "skipped");
+            } else {
+                long d = st == Math.min(r.failedStep, steps - 1) ? remaining : (long) (remaining * (0.2 + 0.4 * r.random.nextDouble()));
+                remaining -= d;
+                g.writeStringField("status", st == r.failedStep ? "failed" : "passed");
+                g.writeNumberField("duration", d);
+                if (st == r.failedStep) {
+                    g.writeStringField("error_message", r.error + "\n\tat steps.GeneratedSteps.step"
+                            + (p.stepBase + st) % 40 + "(GeneratedSteps.java:" + (20 + st * 7) + ")");
+                }
+            }
+            g.writeEndObject();
+            if (st == r.failedStep && embedBytes > 0) {
+                g.writeArrayFieldStart("embeddings");
+                g.writeStartObject();
+                g.writeStringField("mime_type", "image/png");
+                g.writeFieldName("data");
+                g.writeBinary(Base64Variants.MIME_NO_LINEFEEDS, new RandomBytes(r.random, embedBytes), embedBytes);
+                g.writeStringField("name", "screenshot");
+                g.writeEndObject();
+                g.writeEndArray();
+            }
+            g.writeEndObject();
+        }
+        g.writeEndArray();
+
+        g.writeArrayFieldStart("after");
+        writeHook(g, "hooks.Hooks.tearDown(io.cucumber.java.Scenario)", r.random);
+        g.writeEndArray();
+        g.writeEndObject();
+    }
+
+    private static void writeHook(JsonGenerator g, String location, Random random) throws IOException {
+        g.writeStartObject();
+        g.writeObjectFieldStart("match");
+        g.writeStringField("location", location);
+        g.writeEndObject();
+        g.writeObjectFieldStart("result");
+        g.writeStringField("status", "passed");
+        g.writeNumberField("duration", 1_000_000L + random.nextInt(20_000_000));
+        g.writeEndObject();
+        g.writeEndObject();
+    }
+
+    private static String stepText(Profile p, int step) {
+        int i = p.stepBase + step;
+        return "the system " + VERBS[i % VERBS.length] + " the " + NOUNS[(i / VERBS.length) % NOUNS.length]
+                + " \"" + (i % 40) + "\"";
+    }
+
+    private Profile profile(int f, int s) {
+        Random random = new Random(mix(seed, f, s, -1));
+        double kind = random.nextDouble();
+        double baseMs = durationMedianMs * Math.exp(durationSigma * random.nextGaussian());
+        return new Profile(kind < failRate ? 1.0 : kind < failRate + flakeRate ? flakeFailProbability : 0.0,
+                Math.max(1, baseMs), random.nextInt(ERRORS.length), random.nextInt(40));
+    }
+
+    private Run run(Profile p, int f, int s, int run) {
+        Random random = new Random(mix(seed, f, s, run));
+        boolean passed = random.nextDouble() >= p.failProbability;
+        long nanos = (long) (p.baseMs * Math.exp(durationJitter * random.nextGaussian()) * 1_000_000);
+        int failedStep = passed ? Integer.MAX_VALUE : random.nextInt(steps);
+        String error = passed ? null : String.format(ERRORS[p.error], 500 + random.nextInt(1000));
+        return new Run(passed, Math.max(1, nanos), failedStep, error, random);
+    }
+
+    // SplitMix64 finalizer over the coordinates, so neighbouring scenarios get unrelated streams
+    private static long mix(long seed, int feature, int scenario, int run) {
+        long z = seed;
+        for (long v : new long[] {feature, scenario, run}) {
+            z += 0x9E3779B97F4A7C15L + v;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            z ^= z >>> 31;
+        }
+        return z;
+    }
+
+    // ---------------- helper classes ----------------
+    private static final class Profile {
+        final double failProbability;
+        final double baseMs;
+        final int error;
+        final int stepBase;
+
+        Profile(double failProbability, double baseMs, int error, int stepBase) {
+            this.failProbability = failProbability;
+            this.baseMs = baseMs;
+            this.error = error;
+            this.stepBase = stepBase;
+        }
+    }
+
+    private static final class Run {
+        final boolean passed;
+        final long durationNanos;
+        final int failedStep;
+        final String error;
+        final Random random;
+
+        Run(boolean passed, long durationNanos, int failedStep, String error, Random random) {
+            this.passed = passed;
+            this.durationNanos = durationNanos;
+            this.failedStep = failedStep;
+            this.error = error;
+            this.random = random;
+        }
+    }
+
+    // embedding payload generated on the fly, so a large screenshot is never held in memory
+    private static final class RandomBytes extends InputStream {
+        private final Random random;
+        private int left;
+
+        RandomBytes(Random random, int length) {
+            this.random = random;
+            this.left = length;
+        }
+
+        @Override
+        public int read() {
+            if (left == 0) return -1;
+            left--;
+            return random.nextInt(256);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (left == 0) return -1;
+            int n = Math.min(len, left);
+            byte[] chunk = new byte[n];
+            random.nextBytes(chunk);
+            System.arraycopy(chunk, 0, b, off, n);
+            left -= n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Synthetic inputs shared by the JMH benchmarks in this directory.
+ *
+ * The benchmarks live in package utils next to the sources they measure. benchmarks/pom.xml compiles them
+ * together with the main sources (jmh-generator-annprocess on the annotation-processor path) into a shaded
+ * jar, so build with mvn -f benchmarks/pom.xml package and run e.g.
+ *   java -jar benchmarks/target/benchmarks.jar -prof gc    (throughput, latency percentiles, allocation rate)
+ *   java -jar benchmarks/target/benchmarks.jar HistoryBenchmark -p scenarios=10000 -p historyPerTest=1000
+ *
+ * Everything is generated from a fixed seed, so two runs of a benchmark measure the same data.
+ */
+final class BenchmarkData {
+
+    static final long SEED = 42;
+    static final int SCENARIOS_PER_FEATURE = 50;
+    static final int STEPS_PER_SCENARIO = 5;
+
+    private BenchmarkData() {
+    }
+
+    /** Cucumber JSON with the given number of scenarios (WorkloadGenerator defaults, one run of history). */
+    static File writeCucumberJson(File dir, int scenarios) throws IOException {
+        WorkloadGenerator generator = new WorkloadGenerator(SEED, (scenarios + SCENARIOS_PER_FEATURE - 1) / SCENARIOS_PER_FEATURE,
+                SCENARIOS_PER_FEATURE, STEPS_PER_SCENARIO, 0, 0.02, 0.05, 0.3, 2000, 1.0, 0.15, 0, LocalDateTime.now());
+        File file = new File(dir, "cucumber.json");
+        generator.writeCucumberJson(file);
+        return file;
+    }
+
+    /** One run's parsed results for the given number of scenarios; run varies which ones fail. */
+    static Map<String, FlakyTestAnalyzer.ScenarioResult> results(int scenarios, int run) {
+        Random rnd = new Random(SEED + run);
+        Map<String, FlakyTestAnalyzer.ScenarioResult> map = new LinkedHashMap<>();
+        for (int i = 0; i < scenarios; i++) {
+            boolean failed = rnd.nextInt(10) == 0;
+            List<FlakyTestAnalyzer.StepTiming> steps = new ArrayList<>(STEPS_PER_SCENARIO);
+            long total = 0;
+            for (int st = 0; st < STEPS_PER_SCENARIO; st++) {
+                long nanos = 1_000_000L + rnd.nextInt(50_000_000);
+                steps.add(new FlakyTestAnalyzer.StepTiming("step " + st + " validates EventHub message " + rnd.nextInt(20), nanos));
+                total += nanos;
+            }
+            map.put(key(i), new FlakyTestAnalyzer.ScenarioResult(
+                    failed ? FlakyTestAnalyzer.Status.FAILED : FlakyTestAnalyzer.Status.PASSED,
+                    failed ? "java.lang.AssertionError: expected 200 but was 503" : null, total, steps));
+        }
+        return map;
+    }
+
+    static String key(int scenario) {
+        int f = scenario / SCENARIOS_PER_FEATURE;
+        int s = scenario % SCENARIOS_PER_FEATURE;
+        return "classpath:features/feature" + f + ".feature:" + (3 + s * 8);
+    }
+
+    static File tempDir(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    static void deleteRecursively(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) deleteRecursively(c);
+        }
+        f.delete();
+    }
+}
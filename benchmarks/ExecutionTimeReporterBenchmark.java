@@ -0,0 +1,130 @@
+package com.example.reporting;
+
+import io.cucumber.plugin.event.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ExecutionTimeReporter handlers under parallel execution: one operation is a whole scenario
+ * (TestCaseStarted, STEPS x TestStepFinished, TestCaseFinished) fired from 8 threads at once.
+ * Each iteration is one test run: TestRunStarted in setup, TestRunFinished (journal drain and summary
+ * render, appended to a report in a temp directory) in teardown, so the render is not part of the score.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(8)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ExecutionTimeReporterBenchmark {
+
+    static final int STEPS = 5;
+
+    // distinct test cases cycled through by the benchmark threads
+    @Param({"100", "10000", "100000"})
+    public int scenarios;
+
+    private final Map<Class<?>, EventHandler<Object>> handlers = new HashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final Result passed = new Result(Status.PASSED, Duration.ofMillis(3), null);
+    private TestCase[] testCases;
+    private File dir;
+
+    @Setup
+    public void setUp() throws IOException {
+        testCases = new TestCase[scenarios];
+        for (int i = 0; i < scenarios; i++) testCases[i] = testCase(i);
+        dir = Files.createTempDirectory("bench-journal").toFile();
+        System.setProperty("execution.journal.path", new File(dir, "execution-journal.tsv").getPath());
+        System.setProperty("execution.report.path", new File(dir, "cucumber-report.html").getPath());
+    }
+
+    @Setup(Level.Iteration)
+    public void startRun() {
+        handlers.clear();
+        new ExecutionTimeReporter().setEventPublisher(new EventPublisher() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> void registerHandlerFor(Class<T> type, EventHandler<T> handler) {
+                handlers.put(type, (EventHandler<Object>) handler);
+            }
+
+            @Override
+            public <T> void removeHandlerFor(Class<T> type, EventHandler<T> handler) {
+                handlers.remove(type);
+            }
+        });
+        fire(new TestRunStarted(Instant.now()));
+    }
+
+    @TearDown(Level.Iteration)
+    public void finishRun() {
+        fire(new TestRunFinished(Instant.now(), passed));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.clearProperty("execution.journal.path");
+        System.clearProperty("execution.report.path");
+        for (File f : Objects.requireNonNull(dir.listFiles())) f.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public void scenario() {
+        TestCase tc = testCases[Math.floorMod(next.getAndIncrement(), testCases.length)];
+        Instant now = Instant.now();
+        fire(new TestCaseStarted(now, tc));
+        for (TestStep step : tc.getTestSteps()) {
+            fire(new TestStepFinished(now, tc, step, passed));
+        }
+        fire(new TestCaseFinished(now, tc, passed));
+    }
+
+    private void fire(Object event) {
+        handlers.get(event.getClass()).receive(event);
+    }
+
+    private static TestCase testCase(int i) {
+        List<TestStep> steps = new ArrayList<>(STEPS);
+        for (int s = 0; s < STEPS; s++) {
+            Step step = proxy(Step.class, Map.of("getText", "step " + s + " validates EventHub message " + (i % 20),
+                    "getKeyword", "Given ", "getLine", 4 + s));
+            steps.add(proxy(PickleStepTestStep.class, Map.of("getStep", step, "getId", UUID.randomUUID(),
+                    "getCodeLocation", "steps.EventHubSteps.step" + s + "()", "getPattern", "step {int}")));
+        }
+        int line = 3 + (i % 50) * 8;
+        return proxy(TestCase.class, Map.of("getId", UUID.randomUUID(), "getName", "Scenario " + i,
+                "getUri", URI.create("classpath:features/feature" + i / 50 + ".feature"), "getLine", line,
+                "getLocation", new Location(line, 3), "getKeyword", "Scenario", "getTags", List.of(),
+                "getTestSteps", steps));
+    }
+
+    // Cucumber's own TestCase / TestStep implementations are internal; answer the getters from a map
+    private static <T> T proxy(Class<T> type, Map<String, Object> values) {
+        Object p = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (self, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(self);
+                case "equals":
+                    return self == args[0];
+                case "toString":
+                    return type.getSimpleName() + values;
+                default:
+                    return values.get(method.getName());
+            }
+        });
+        return type.cast(p);
+    }
+}
@@ -0,0 +1,91 @@
+package utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * History side of a run: readStatsForKey (an index lookup) and rebuilding the index from the history log.
+ * - statsLookup: one HistoryIndex.get per operation, keys visited in a fixed shuffled order
+ * - rebuildIndex: HistoryIndex.load without an index file, i.e. a full replay of scenarios x historyPerTest records
+ *
+ * Combinations over flaky.bench.maxRecords (default 20M records) fail in setup instead of filling the disk;
+ * select them explicitly with -p and raise the limit to run them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HistoryBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int scenarios;
+
+    @Param({"10", "100", "1000"})
+    public int historyPerTest;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private File dir;
+    private HistoryLog log;
+    private HistoryIndex index;
+    private String[] keys;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        long records = (long) scenarios * historyPerTest;
+        long max = Long.getLong("flaky.bench.maxRecords", 20_000_000L);
+        if (records > max) {
+            throw new IllegalStateException(records + " history records exceed flaky.bench.maxRecords=" + max);
+        }
+        dir = BenchmarkData.tempDir("bench-history");
+        log = new HistoryLog(new File(dir, "history-log"), HistoryLog.DEFAULT_SEGMENT_BYTES);
+        for (int run = 0; run < historyPerTest; run++) {
+            Map<String, ObjectNode> entries = new LinkedHashMap<>();
+            for (Map.Entry<String, FlakyTestAnalyzer.ScenarioResult> e : BenchmarkData.results(scenarios, run).entrySet()) {
+                boolean passed = e.getValue().status == FlakyTestAnalyzer.Status.PASSED;
+                ObjectNode entry = mapper.createObjectNode();
+                entry.put("timestamp", "2024-01-01T00:00:00." + String.format("%06d", run));
+                entry.put("status", passed ? "SUCCESSFUL" : "FAILED");
+                entry.put("reason", passed ? "Passed" : e.getValue().errorMessage);
+                entry.put("durationMs", e.getValue().durationMs);
+                entry.put("flakyPattern", false);
+                entries.put(e.getKey(), entry);
+            }
+            log.append(mapper, entries);
+        }
+        index = HistoryIndex.load(mapper, new File(dir, "missing-index.json"), log);
+
+        keys = new String[scenarios];
+        for (int i = 0; i < scenarios; i++) keys[i] = BenchmarkData.key(i);
+        Collections.shuffle(Arrays.asList(keys), new Random(BenchmarkData.SEED));
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkData.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public HistoryIndex.Entry statsLookup() {
+        String key = keys[next];
+        next = next + 1 == keys.length ? 0 : next + 1;
+        return index.get(key);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public HistoryIndex rebuildIndex() throws IOException {
+        return HistoryIndex.load(mapper, new File(dir, "missing-index.json"), log);
+    }
+}
@@ -0,0 +1,53 @@
+package utils;
+
+import hooks.ReportMerger;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ReportMerger.mergeAllReports over a test report generated for the given number of scenarios, with and
+ * without the gzip copy (brotli / zstd are external tools and left out).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MergeBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int scenarios;
+
+    @Param({"", "gzip"})
+    public String precompress;
+
+    private File target;
+
+    @Setup
+    public void setUp() throws IOException {
+        target = BenchmarkData.tempDir("bench-merge");
+        ReportBenchmark.seed(new File(target, "test-history"), scenarios).generateHtmlReport();
+        Files.write(new File(target, "execution-summary.html").toPath(),
+                "<html><head><title>Execution Summary</title></head><body><h1>Summary</h1></body></html>"
+                        .getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(target, "cucumber-report.html").toPath(), new byte[0]);
+        System.setProperty("report.precompress", precompress);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.clearProperty("report.precompress");
+        BenchmarkData.deleteRecursively(target);
+    }
+
+    @Benchmark
+    public void mergeAllReports() throws IOException {
+        ReportMerger.mergeAllReports(target.toPath());
+    }
+}
@@ -0,0 +1,44 @@
+package utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FlakyTestAnalyzer.parseCucumberJson: streaming parse of one Cucumber JSON report (CucumberJsonParser).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ParseBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int scenarios;
+
+    private final JsonFactory factory = new JsonFactory();
+    private File dir;
+    private File json;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = BenchmarkData.tempDir("bench-parse");
+        json = BenchmarkData.writeCucumberJson(dir, scenarios);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkData.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public Map<String, FlakyTestAnalyzer.ScenarioResult> parse() throws IOException {
+        return new CucumberJsonParser(factory).parse(json);
+    }
+}
@@ -0,0 +1,53 @@
+package utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FlakyTestAnalyzer.generateHtmlReport over a history of RUNS recorded runs (summary, rows, step latency).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ReportBenchmark {
+
+    static final int RUNS = 10;
+
+    @Param({"100", "10000", "100000"})
+    public int scenarios;
+
+    private File dir;
+    private FlakyTestAnalyzer analyzer;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = BenchmarkData.tempDir("bench-report");
+        analyzer = seed(dir, scenarios);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkData.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void generateHtmlReport() throws IOException {
+        analyzer.generateHtmlReport();
+    }
+
+    /** Records RUNS runs into historyDir; the returned analyzer holds the state of the last one. */
+    static FlakyTestAnalyzer seed(File historyDir, int scenarios) throws IOException {
+        FlakyTestAnalyzer analyzer = null;
+        for (int run = 0; run < RUNS; run++) {
+            analyzer = new FlakyTestAnalyzer(historyDir);
+            analyzer.recordRun(BenchmarkData.results(scenarios, run), HistoryLog.DEFAULT_SEGMENT_BYTES);
+        }
+        return analyzer;
+    }
+}